@@ -0,0 +1,502 @@
+package foodchain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import utils.SecurityUtils;
+
+/**
+ * Compact binary format of Block, MerkleTree, FoodTransaction and
+ * FoodProduct.
+ *
+ * Each message starts with [ magic(1) version(1) type(1) ] and the fields are
+ * written in a fixed order with variable length sizes. The merkle tree keeps
+ * only the leaf hashes (the upper levels are calculated when decoded), the
+ * public keys are written in the X.509 encoding and the transactions in Base64
+ * are written as bytes.
+ *
+ * Block and FoodTransaction use this format for java serialization (files and
+ * RMI) through SerialProxy.
+ *
+ * The leaves of the merkle tree are the hashes of encodeLeaf.
+ */
+public final class BinaryCodec {
+
+    //version of the format (2 - state root in the header of the blocks)
+    public static final int VERSION = 2;
+    //first byte of the messages
+    private static final int MAGIC = 0xFC;
+    //types of messages
+    private static final int TYPE_BLOCK = 1;
+    private static final int TYPE_TRANSACTION = 2;
+    //types of elements of the merkle tree
+    private static final int ELEMENT_STRING = 0;
+    private static final int ELEMENT_BASE64 = 1;
+    private static final int ELEMENT_TRANSACTION = 2;
+    private static final int ELEMENT_OBJECT = 3;
+    //max size of a byte array (the data is read from the network)
+    static final int MAX_BYTES = 1 << 24;
+
+    private BinaryCodec() {
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    //:::::::::::::::::::::::::::      B L O C K        ::::::::::::::::::::::::
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * encodes the block
+     *
+     * @param block block
+     * @return bytes of the block
+     * @throws IOException
+     */
+    public static byte[] encodeBlock(Block block) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        writeHeader(out, TYPE_BLOCK);
+        writeBlock(out, block);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * decodes the block
+     *
+     * @param data bytes of the block
+     * @return block
+     * @throws IOException
+     */
+    public static Block decodeBlock(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = readHeader(in, TYPE_BLOCK);
+        try {
+            return readBlock(in, version);
+        } catch (RuntimeException ex) {
+            throw new IOException("Invalid block data", ex);
+        }
+    }
+
+    static void writeBlock(DataOutputStream out, Block block) throws IOException {
+        writeVarInt(out, block.getID());
+        out.writeLong(block.getTimestamp());
+        writeBytes(out, block.getPreviousHash());
+        writeBytes(out, block.getMerkleRoot());
+        writeBytes(out, block.getStateRoot());
+        writeVarInt(out, block.getDificulty());
+        writeVarInt(out, block.getExtraNonce());
+        out.writeLong(block.getNonce());
+        writeBytes(out, block.getCurrentHash());
+        writeMerkleTree(out, block.getData());
+    }
+
+    static Block readBlock(DataInputStream in, int version) throws IOException {
+        int ID = readVarInt(in);
+        long timestamp = in.readLong();
+        byte[] previousHash = readBytes(in);
+        byte[] merkleRoot = readBytes(in);
+        byte[] stateRoot = version >= 2 ? readBytes(in) : null;
+        int dificulty = readVarInt(in);
+        int extraNonce = readVarInt(in);
+        long nonce = in.readLong();
+        byte[] currentHash = readBytes(in);
+        MerkleTree<Object> data = readMerkleTree(in);
+        return new Block(ID, previousHash, merkleRoot, stateRoot, data, timestamp, dificulty, extraNonce, nonce, currentHash);
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    //:::::::::::::::::::::::::::   M E R K L E   T R E E   ::::::::::::::::::::
+    ///////////////////////////////////////////////////////////////////////////
+    static void writeMerkleTree(DataOutputStream out, MerkleTree<?> tree) throws IOException {
+        List<?> elements = tree.getElements();
+        writeVarInt(out, elements.size());
+        for (Object element : elements) {
+            writeElement(out, element);
+        }
+        //leafs of the tree
+        List<byte[]> leafs = tree.getLeaves();
+        writeVarInt(out, leafs.size());
+        for (byte[] leaf : leafs) {
+            writeBytes(out, leaf);
+        }
+    }
+
+    static MerkleTree<Object> readMerkleTree(DataInputStream in) throws IOException {
+        MerkleTree<Object> tree = new MerkleTree<>();
+        int size = readCount(in);
+        for (int i = 0; i < size; i++) {
+            tree.elements.add(readElement(in));
+        }
+        //calculate the upper levels of the tree
+        int leafs = readCount(in);
+        List<byte[]> hashs = new ArrayList<>(leafs);
+        for (int i = 0; i < leafs; i++) {
+            hashs.add(readBytes(in));
+        }
+        if (!hashs.isEmpty()) {
+            tree.makeTree(hashs);
+        }
+        return tree;
+    }
+
+    private static void writeElement(DataOutputStream out, Object element) throws IOException {
+        if (element instanceof FoodTransaction) {
+            out.writeByte(ELEMENT_TRANSACTION);
+            writeTransaction(out, (FoodTransaction) element);
+        } else if (element instanceof String) {
+            String txt = (String) element;
+            byte[] bytes = base64Bytes(txt);
+            if (bytes != null) {
+                out.writeByte(ELEMENT_BASE64);
+                writeBytes(out, bytes);
+            } else {
+                out.writeByte(ELEMENT_STRING);
+                writeString(out, txt);
+            }
+        } else {
+            //other objects use java serialization
+            out.writeByte(ELEMENT_OBJECT);
+            writeBytes(out, MerkleTree.objectToBytes(element));
+        }
+    }
+
+    /**
+     * canonical bytes of an element hashed in the leaves of the merkle tree.
+     *
+     * The transactions of the blocks are Base64 strings and are hashed as
+     * strings - the text is not decoded, so the leaf is the exact element of
+     * the block. The fields of a FoodTransaction are written only for trees
+     * of decoded transactions.
+     *
+     * @param element element of the tree
+     * @return [ type(1) fields ] - strings are written in UTF-8
+     * @throws IllegalArgumentException if the element can not be encoded
+     */
+    public static byte[] encodeLeaf(Object element) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            if (element instanceof FoodTransaction) {
+                out.writeByte(ELEMENT_TRANSACTION);
+                writeTransaction(out, (FoodTransaction) element);
+            } else if (element instanceof String) {
+                out.writeByte(ELEMENT_STRING);
+                out.write(((String) element).getBytes(StandardCharsets.UTF_8));
+            } else if (element instanceof Serializable) {
+                out.writeByte(ELEMENT_OBJECT);
+                out.write(MerkleTree.objectToBytes(element));
+            } else {
+                throw new IllegalArgumentException("Element can not be encoded " + element);
+            }
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Object readElement(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case ELEMENT_TRANSACTION:
+                return readTransaction(in);
+            case ELEMENT_BASE64:
+                return Base64.getEncoder().encodeToString(readBytes(in));
+            case ELEMENT_STRING:
+                return readString(in);
+            case ELEMENT_OBJECT:
+                return MerkleTree.bytesToObject(readBytes(in));
+            default:
+                throw new IOException("Unknown element type " + type);
+        }
+    }
+
+    /**
+     * bytes of a Base64 text if the text is restored exactly from the bytes
+     *
+     * @param txt text
+     * @return bytes or null if the text is not Base64
+     */
+    private static byte[] base64Bytes(String txt) {
+        try {
+            byte[] bytes = Base64.getDecoder().decode(txt);
+            return Base64.getEncoder().encodeToString(bytes).equals(txt) ? bytes : null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    //:::::::::::::::::::::::::::   T R A N S A C T I O N  ::::::::::::::::::::
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * encodes the transaction
+     *
+     * @param transaction transaction
+     * @return bytes of the transaction
+     * @throws IOException
+     */
+    public static byte[] encodeTransaction(FoodTransaction transaction) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        writeHeader(out, TYPE_TRANSACTION);
+        writeTransaction(out, transaction);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * decodes the transaction
+     *
+     * @param data bytes of the transaction
+     * @return transaction
+     * @throws IOException
+     */
+    public static FoodTransaction decodeTransaction(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        readHeader(in, TYPE_TRANSACTION);
+        try {
+            return readTransaction(in);
+        } catch (RuntimeException ex) {
+            throw new IOException("Invalid transaction data", ex);
+        }
+    }
+
+    static void writeTransaction(DataOutputStream out, FoodTransaction tx) throws IOException {
+        out.writeByte(tx.getType().ordinal());
+        writeString(out, tx.getTxtSender());
+        writeString(out, tx.getTxtReceiver());
+        writeBytes(out, tx.getSender() == null ? null : tx.getSender().getEncoded());
+        writeBytes(out, tx.getReceiver() == null ? null : tx.getReceiver().getEncoded());
+        writeProduct(out, tx.getProduct());
+        out.writeLong(tx.getTimestamp());
+        writeBytes(out, tx.getSignature());
+    }
+
+    static FoodTransaction readTransaction(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        FoodTransaction.TransactionType[] types = FoodTransaction.TransactionType.values();
+        if (ordinal >= types.length) {
+            throw new IOException("Unknown transaction type " + ordinal);
+        }
+        FoodTransaction.TransactionType type = types[ordinal];
+        String txtSender = readString(in);
+        String txtReceiver = readString(in);
+        PublicKey sender = readPublicKey(in);
+        PublicKey receiver = readPublicKey(in);
+        FoodProduct product = readProduct(in);
+        long timestamp = in.readLong();
+        byte[] signature = readBytes(in);
+        return new FoodTransaction(type, txtSender, txtReceiver, sender, receiver, product, timestamp, signature);
+    }
+
+    private static PublicKey readPublicKey(DataInputStream in) throws IOException {
+        byte[] encoded = readBytes(in);
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            return SecurityUtils.getPublicKey(encoded);
+        } catch (Exception ex) {
+            throw new IOException("Invalid public key", ex);
+        }
+    }
+
+    /**
+     * canonical bytes of the product (ex: data signed in the transactions)
+     *
+     * @param product product
+     * @return fields of the product
+     * @throws IOException
+     */
+    public static byte[] encodeProduct(FoodProduct product) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        writeProduct(out, product);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    static void writeProduct(DataOutputStream out, FoodProduct p) throws IOException {
+        writeString(out, p.getProductId());
+        writeString(out, p.getProductName());
+        writeString(out, p.getBatchId());
+        writeString(out, p.getCategory());
+        out.writeDouble(p.getQuantity());
+        writeString(out, p.getUnit());
+        writeString(out, p.getOrigin());
+        out.writeLong(p.getProductionDate());
+        out.writeLong(p.getExpiryDate());
+        writeString(out, p.getCurrentStation());
+        writeString(out, p.getCurrentLocation());
+        writeString(out, p.getStatus());
+        writeString(out, p.getNotes());
+        out.writeDouble(p.getTemperature());
+        out.writeDouble(p.getPrice());
+    }
+
+    static FoodProduct readProduct(DataInputStream in) throws IOException {
+        return new FoodProduct(readString(in), readString(in), readString(in),
+                readString(in), in.readDouble(), readString(in),
+                readString(in), in.readLong(), in.readLong(),
+                readString(in), readString(in),
+                readString(in), readString(in), in.readDouble(), in.readDouble());
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    //::::::                                                           :::::::::
+    //::::::                         U T I L S                         :::::::::
+    //::::::                                                           :::::::::
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * verify if the data is in this format
+     *
+     * @param data bytes
+     * @return true if the data starts with the magic byte
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data.length > 0 && (data[0] & 0xFF) == MAGIC;
+    }
+
+    private static void writeHeader(DataOutputStream out, int type) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+    }
+
+    private static int readHeader(DataInputStream in, int type) throws IOException {
+        if (in.readUnsignedByte() != MAGIC) {
+            throw new IOException("Invalid format");
+        }
+        int version = in.readUnsignedByte();
+        if (version > VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        if (in.readUnsignedByte() != type) {
+            throw new IOException("Invalid type - expected " + type);
+        }
+        return version;
+    }
+
+    /**
+     * writes a positive int with 7 bits per byte
+     */
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    /**
+     * writes a byte array ( size + 1 , 0 is null )
+     */
+    static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        if (data == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, data.length + 1);
+        out.write(data);
+    }
+
+    /**
+     * reads the number of items of a list - each item has one byte at least
+     */
+    static int readCount(DataInputStream in) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0 || count > in.available()) {
+            throw new IOException("Invalid number of items " + count);
+        }
+        return count;
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int size = readVarInt(in);
+        if (size == 0) {
+            return null;
+        }
+        //the size is not greater than the bytes of the data
+        if (size < 0 || size - 1 > MAX_BYTES || size - 1 > in.available()) {
+            throw new IOException("Invalid size of bytes " + size);
+        }
+        byte[] data = new byte[size - 1];
+        in.readFully(data);
+        return data;
+    }
+
+    static void writeString(DataOutputStream out, String txt) throws IOException {
+        writeBytes(out, txt == null ? null : txt.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] data = readBytes(in);
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * java serialization of Block and FoodTransaction in this format
+     */
+    static class SerialProxy implements Serializable {
+
+        private final byte[] data;
+
+        SerialProxy(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * proxy of an object
+         *
+         * @param object Block or FoodTransaction
+         * @return proxy with the bytes of the object
+         * @throws ObjectStreamException
+         */
+        static SerialProxy of(Object object) throws ObjectStreamException {
+            try {
+                if (object instanceof Block) {
+                    return new SerialProxy(encodeBlock((Block) object));
+                }
+                return new SerialProxy(encodeTransaction((FoodTransaction) object));
+            } catch (IOException ex) {
+                throw new InvalidObjectException(ex.getMessage());
+            }
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                if ((data[2] & 0xFF) == TYPE_BLOCK) {
+                    return decodeBlock(data);
+                }
+                return decodeTransaction(data);
+            } catch (IOException | RuntimeException ex) {
+                throw new InvalidObjectException(ex.getMessage());
+            }
+        }
+
+        private static final long serialVersionUID = 202610180004L;
+    }
+}
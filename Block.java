@@ -21,7 +21,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Date;
@@ -39,11 +41,13 @@ public class Block implements Serializable {
     private final int ID;
     private final byte[] previousHash;
     private final byte[] merkleRoot;
+    private final byte[] stateRoot; //root of the state tree (null in old blocks)
     private final MerkleTree data; //Merkle Tree
     private final long timestamp; //unix era
-    private final int dificulty; //number of zeros 
+    private final int dificulty; //number of leading zero bits of the hash
     //:::::::: security Protocol - POW ::::::::::::::::
-    private int nonce;
+    private int extraNonce; //changes the header when the nonces run out
+    private long nonce;
     private byte[] currentHash;
 
     /**
@@ -51,10 +55,23 @@ public class Block implements Serializable {
      *
      * @param ID ID of the block
      * @param previousHash Hash of the previous block
-     * @param dificulty Number of zeros in the POW
+     * @param dificulty Number of leading zero bits in the POW
      * @param data List of elements to store in block
      */
     public Block(int ID, byte[] previousHash, int dificulty, List data) {
+        this(ID, previousHash, dificulty, data, null);
+    }
+
+    /**
+     * constructor
+     *
+     * @param ID ID of the block
+     * @param previousHash Hash of the previous block
+     * @param dificulty Number of leading zero bits in the POW
+     * @param data List of elements to store in block
+     * @param stateRoot root of the state tree after the block
+     */
+    public Block(int ID, byte[] previousHash, int dificulty, List<?> data, byte[] stateRoot) {
         this.ID = ID;
         this.previousHash = previousHash;
         this.dificulty = dificulty;
@@ -62,6 +79,52 @@ public class Block implements Serializable {
         //build a merkleTree
         this.data = new MerkleTree(data);
         this.merkleRoot = this.data.getRoot();
+        this.stateRoot = stateRoot;
+    }
+
+    /**
+     * copy of the block template with other extra nonce (not mined)
+     *
+     * @param template block template
+     * @param extraNonce extra nonce of the header
+     */
+    private Block(Block template, int extraNonce) {
+        this.ID = template.ID;
+        this.previousHash = template.previousHash;
+        this.dificulty = template.dificulty;
+        this.timestamp = template.timestamp;
+        this.data = template.data;
+        this.merkleRoot = template.merkleRoot;
+        this.stateRoot = template.stateRoot;
+        this.extraNonce = extraNonce;
+    }
+
+    /**
+     * block with all the fields (used to decode blocks)
+     */
+    Block(int ID, byte[] previousHash, byte[] merkleRoot, byte[] stateRoot, MerkleTree<?> data, long timestamp,
+            int dificulty, int extraNonce, long nonce, byte[] currentHash) {
+        this.ID = ID;
+        this.previousHash = previousHash;
+        this.merkleRoot = merkleRoot;
+        this.stateRoot = stateRoot;
+        this.data = data;
+        this.timestamp = timestamp;
+        this.dificulty = dificulty;
+        this.extraNonce = extraNonce;
+        this.nonce = nonce;
+        this.currentHash = currentHash;
+    }
+
+    /**
+     * template of the block with other extra nonce - used when all the nonces
+     * of a header are used
+     *
+     * @param extraNonce extra nonce of the header
+     * @return copy of the block with the extra nonce (not mined)
+     */
+    public Block withExtraNonce(int extraNonce) {
+        return new Block(this, extraNonce);
     }
 
     /**
@@ -74,7 +137,11 @@ public class Block implements Serializable {
         bytes = Utils.concatenate(bytes, Utils.toBytes(timestamp));
         bytes = Utils.concatenate(bytes, Utils.toBytes(previousHash));
         bytes = Utils.concatenate(bytes, Utils.toBytes(merkleRoot));
-        return Utils.concatenate(bytes, Utils.toBytes(dificulty));
+        if (stateRoot != null) {
+            bytes = Utils.concatenate(bytes, Utils.toBytes(stateRoot));
+        }
+        bytes = Utils.concatenate(bytes, Utils.toBytes(dificulty));
+        return Utils.concatenate(bytes, Utils.toBytes(extraNonce));
 
     }
 
@@ -93,8 +160,13 @@ public class Block implements Serializable {
      * @throws Exception
      */
     public void mine() throws Exception {
-        String dataTxt = getHeaderDataBase64();
-        int pow = MinerDistibuted.getNonce(dataTxt, this.dificulty);
+        MinerDistibuted miner = new MinerDistibuted();
+        long pow = miner.mine(getHeaderDataBase64(), this.dificulty, 0, Long.MAX_VALUE);
+        //all the nonces are used - change the header
+        while (!miner.isWinner()) {
+            extraNonce++;
+            pow = miner.mine(getHeaderDataBase64(), this.dificulty, 0, Long.MAX_VALUE);
+        }
         setNonce(pow);
     }
     
@@ -108,7 +180,7 @@ public class Block implements Serializable {
      * @param nonce nonce
      * @throws Exception
      */
-    public void setNonce(int nonce) throws Exception {
+    public void setNonce(long nonce) throws Exception {
         this.nonce = nonce;
         this.currentHash = MinerDistibuted.getHash(getHeaderDataBase64() + nonce).getBytes();
         if (!isValid()) {
@@ -122,7 +194,11 @@ public class Block implements Serializable {
         txt.append("\ntimestamp ").append(new Date(timestamp));
         txt.append("\npreviousHash ").append(new String(previousHash));
         txt.append("\nmerkleRoot ").append(Base64.getEncoder().encodeToString(merkleRoot));
+        if (stateRoot != null) {
+            txt.append("\nstateRoot ").append(Base64.getEncoder().encodeToString(stateRoot));
+        }
         txt.append("\ndificulty ").append(dificulty);
+        txt.append("\nEXTRA NONCE ").append(extraNonce);
         txt.append("\nNONCE ").append(nonce);
         txt.append("\nHASH ").append(new String(currentHash));
         return txt.toString();
@@ -141,24 +217,20 @@ public class Block implements Serializable {
     }
 
     /**
-     * validate the block - Contains zeros - Hash calculated match with
-     * currentHash
+     * validate the block - Hash calculated match with currentHash - Hash
+     * starts with dificulty zero bits
      *
      * @return true if valid
      */
     public boolean isValid() {
         try {
-            //:::::::::: zeros no inicio :::::::::::::::::::::::::
-            String txtHash = new String(currentHash);
-            String hashZeros = txtHash.substring(0, this.dificulty);
-            String allZeros = String.format("%0" + dificulty + "d", 0);
-            if (!hashZeros.equals(allZeros)) {
-                return false;
-            }
-
             //:::::::::: o hash é valido ::::::::::::::::::::::::::::
             byte[] myHash = MinerDistibuted.getHash(getHeaderDataBase64() + nonce).getBytes();
-            return Arrays.equals(myHash, currentHash);
+            if (!Arrays.equals(myHash, currentHash)) {
+                return false;
+            }
+            //:::::::::: bits a zero no inicio :::::::::::::::::::::::
+            return MinerDistibuted.isValidHash(Base64.getDecoder().decode(currentHash), dificulty);
         } catch (Exception ex) {
             return false;
         }
@@ -209,6 +281,16 @@ public class Block implements Serializable {
         return merkleRoot;
     }
 
+    /**
+     * root of the state tree after the block
+     *
+     * @return root or null in the genesis block and in the blocks migrated
+     * from the old version
+     */
+    public byte[] getStateRoot() {
+        return stateRoot;
+    }
+
     public MerkleTree getData() {
         return data;
     }
@@ -217,10 +299,23 @@ public class Block implements Serializable {
         return dificulty;
     }
 
-    public int getNonce() {
+    /**
+     * expected number of hashes to mine the block
+     *
+     * @return 2^dificulty
+     */
+    public BigInteger getWork() {
+        return BigInteger.ONE.shiftLeft(dificulty);
+    }
+
+    public long getNonce() {
         return nonce;
     }
 
+    public int getExtraNonce() {
+        return extraNonce;
+    }
+
     public byte[] getCurrentHash() {
         return currentHash;
     }
@@ -240,8 +335,20 @@ public class Block implements Serializable {
         }
     }
 
+    /**
+     * the block is serialized in the format of BinaryCodec
+     *
+     * @return proxy of the block
+     * @throws ObjectStreamException
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return BinaryCodec.SerialProxy.of(this);
+    }
+
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
-    private static final long serialVersionUID = 202510081445L;
+    //new version - the nonce is a long and the header has the extra nonce
+    //(blocks of the old version fail with a serialVersionUID mismatch)
+    private static final long serialVersionUID = 202610180020L;
     //:::::::::::::::::::::::::::  Copyright(c) M@nso  2025  :::::::::::::::::::
 
 
@@ -16,6 +16,7 @@
 
 package foodchain;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -23,10 +24,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import utils.FolderUtils;
 
 /**
@@ -36,7 +45,45 @@ import utils.FolderUtils;
  */
 public class BlockChain implements Serializable {
 
+    //dificulty of the genesis block (leading zero bits)
+    public static final int GENESIS_DIFICULTY = 18;
+    //timestamp and nonce of the genesis block - the nodes create the same
+    //genesis block (the fork choice keeps the first branch seen)
+    static final long GENESIS_TIMESTAMP = 1792281600000L;
+    static final long GENESIS_NONCE = 176834;
+    //number of blocks between dificulty adjustments
+    public static final int RETARGET_INTERVAL = 10;
+    //expected time between blocks (ms)
+    public static final long TARGET_BLOCK_TIME = 60_000;
+    //max bits changed in one adjustment (x4 or /4 the work)
+    public static final int MAX_RETARGET_BITS = 2;
+    //number of blocks between checkpoints
+    public static final int CHECKPOINT_INTERVAL = 100;
+    //max transactions in one page of a query
+    public static final int MAX_PAGE_SIZE = 1000;
+    //max transactions in a new block
+    public static final int MAX_BLOCK_TRANSACTIONS = 10_000;
+    //number of states of the last blocks kept (reorganizations)
+    public static final int MAX_STATES = 100;
+    //number of blocks of the median time of the last blocks
+    public static final int MEDIAN_TIME_BLOCKS = 11;
+    //max time of a block after the clock of the node (ms)
+    public static final long MAX_FUTURE_TIME = RETARGET_INTERVAL * TARGET_BLOCK_TIME;
+
     List<Block> blocks;
+    //append-only storage of the blocks (local to the node)
+    transient BlockStore store;
+    //last checkpoint of the blockchain
+    transient Checkpoint checkpoint;
+    //transactions of each product (built on the first lookup)
+    transient ProductIndex productIndex;
+    //number of blocks -> state of the products (built on the first use)
+    transient TreeMap<Integer, StateTree> states;
+    //number of blocks migrated from the old version (BlockMigration) - they
+    //were validated with the rules of the old version and are not replaced
+    transient int legacyHeight;
+    //validation of the content of the blocks (merkle root and transactions)
+    private static final BlockValidator VALIDATOR = new BlockValidator();
 
     /**
      * *
@@ -45,18 +92,22 @@ public class BlockChain implements Serializable {
      * @throws Exception
      */
     private BlockChain(String fileName) throws Exception {
-        this.fileName = fileName;
         //creates genesis block
-        Block genesis = new Block(0, new byte[]{0, 0, 0, 0}, 3, Arrays.asList("Genesis Block"));
-        genesis.mine();
-        //creates list of blocks
-        blocks = new CopyOnWriteArrayList<>();
-        //add block to blockchain 
-        blocks.add(genesis);
-        //save new block
-        new File(fileName).getParentFile().mkdirs();
-        genesis.save(new File(fileName).getParent() + "/");
-        save(fileName);
+        this(fileName, createGenesis());
+    }
+
+    /**
+     * genesis block of the network (the same block in all the nodes)
+     *
+     * @return genesis block mined
+     * @throws Exception
+     */
+    static Block createGenesis() throws Exception {
+        MerkleTree<Object> data = new MerkleTree<>(Arrays.<Object>asList("Genesis Block"));
+        Block genesis = new Block(0, new byte[]{0, 0, 0, 0}, data.getRoot(), null, data,
+                GENESIS_TIMESTAMP, GENESIS_DIFICULTY, 0, 0, null);
+        genesis.setNonce(GENESIS_NONCE);
+        return genesis;
     }
 
     /**
@@ -65,14 +116,29 @@ public class BlockChain implements Serializable {
      * @param genesis
      */
     public BlockChain(String fileName, Block genesis) throws Exception {
-        this(fileName);
-        blocks = new CopyOnWriteArrayList<>();
-        //add block to blockchain 
-        blocks.add(genesis);
+        this.fileName = fileName;
+        if (genesis.getCurrentHash() == null) {
+            genesis.mine();
+        }
         //save new block
-        new File(fileName).getParentFile().mkdirs();
-        genesis.save(new File(fileName).getParent() + "/");
-        save(fileName);
+        store = new BlockStore(getPath());
+        store.truncate(0);
+        store.append(genesis);
+        //list of blocks read from the store
+        blocks = store.getBlocks();
+    }
+
+    /**
+     * loads the blockchain from the block store
+     *
+     * @param fileName filename
+     * @param store store with the blocks
+     * @throws IOException
+     */
+    private BlockChain(String fileName, BlockStore store) throws IOException {
+        this.fileName = fileName;
+        this.store = store;
+        this.blocks = store.getBlocks();
     }
 
     /**
@@ -84,12 +150,55 @@ public class BlockChain implements Serializable {
     public Block createNewBlock(List data) {
         //last block of blockchain
         Block lastBlock = blocks.get(blocks.size() - 1);
+        //state of the products after the block
+        byte[] stateRoot = getState(blocks.size()).apply(data).getRoot();
         //build new block (NOT MINES
         return new Block(
                 lastBlock.getID() + 1,
                 lastBlock.getCurrentHash(),
-                lastBlock.getDificulty(),
-                data);
+                getNextDificulty(),
+                data,
+                stateRoot);
+    }
+
+    /**
+     * dificulty of the next block - every RETARGET_INTERVAL blocks the
+     * dificulty is adjusted by the time spent to mine the last interval
+     *
+     * @return number of leading zero bits of the next block
+     */
+    public int getNextDificulty() {
+        return getNextDificulty(blocks, legacyHeight);
+    }
+
+    /**
+     * dificulty of the block after the last block of the chain
+     *
+     * @param chain blocks of the chain
+     * @param legacyHeight number of blocks migrated from the old version
+     * @return number of leading zero bits of the next block
+     */
+    private static int getNextDificulty(List<Block> chain, int legacyHeight) {
+        Block lastBlock = chain.get(chain.size() - 1);
+        int nextID = lastBlock.getID() + 1;
+        //first block after the migrated blocks (the dificulty of the old
+        //version is a number of Base64 zeros)
+        if (nextID == legacyHeight) {
+            return GENESIS_DIFICULTY;
+        }
+        //keep the dificulty inside the interval (and in the first interval
+        //with migrated blocks)
+        if (nextID % RETARGET_INTERVAL != 0 || nextID - RETARGET_INTERVAL < legacyHeight) {
+            return lastBlock.getDificulty();
+        }
+        //first block of the interval
+        Block firstBlock = chain.get(nextID - RETARGET_INTERVAL);
+        long actualTime = Math.max(1, lastBlock.getTimestamp() - firstBlock.getTimestamp());
+        long expectedTime = (RETARGET_INTERVAL - 1) * TARGET_BLOCK_TIME;
+        //each bit doubles the work
+        long bits = Math.round(Math.log((double) expectedTime / actualTime) / Math.log(2));
+        bits = Math.max(-MAX_RETARGET_BITS, Math.min(MAX_RETARGET_BITS, bits));
+        return (int) Math.max(1, lastBlock.getDificulty() + bits);
     }
 
     /**
@@ -117,25 +226,98 @@ public class BlockChain implements Serializable {
         }
         System.out.println("LAST" + new String(last.getCurrentHash() ));
         System.out.println("NEW " + new String(newBlock.getCurrentHash() ));
+        //hash, merkle root and transactions (doesn't depend on the chain)
+        VALIDATOR.validate(newBlock);
+        //the tip doesn't change between the validation and the append
+        synchronized (this) {
+            validate(blocks, newBlock, legacyHeight);
+            StateTree state = validateState(getState(blocks.size()), newBlock);
+            //::::::: SUCESS ::::::::::::
+            //add block to blockchain (the list of blocks reads the store)
+            store.append(newBlock);
+            if (productIndex != null) {
+                productIndex.add(newBlock);
+            }
+            putState(blocks.size(), state);
+        }
+    }
+
+    /**
+     * verify if the block can be added after the last block of the chain
+     *
+     * @param chain blocks before the new block
+     * @param newBlock new block
+     * @param legacyHeight number of blocks migrated from the old version
+     * @throws Exception if the block is not valid
+     */
+    private static void validate(List<Block> chain, Block newBlock, int legacyHeight) throws Exception {
+        //genesis block
+        if (chain.isEmpty()) {
+            if (newBlock.getID() != 0 || !newBlock.isValid()) {
+                throw new Exception("Invalid genesis block");
+            }
+            return;
+        }
         //block match to the last block
-        if (!Arrays.equals(last.getCurrentHash(), newBlock.getPreviousHash())) {
+        if (!Arrays.equals(chain.get(chain.size() - 1).getCurrentHash(), newBlock.getPreviousHash())) {
             throw new Exception("block dont match - previous hash incorrect");
         }
+        //block has the dificulty of the blockchain
+        if (newBlock.getDificulty() != getNextDificulty(chain, legacyHeight)) {
+            throw new Exception("Incorrect dificulty");
+        }
         //block isvalid
         if (!newBlock.isValid()) {
             throw new Exception("Invalid block");
         }
         //ID of block is the position in the array
-        if (blocks.size() != newBlock.getID()) {
+        if (chain.size() != newBlock.getID()) {
             throw new Exception("Incorrect ID");
         }
-        //::::::: SUCESS ::::::::::::
-        //add block to blockchain 
-        blocks.add(newBlock);
-        //save new block
-        newBlock.save(new File(fileName).getParent() + "/");
-        //save blockchain
-        save(fileName);
+        //the timestamps are used to adjust the dificulty
+        if (newBlock.getTimestamp() < getMedianTime(chain)) {
+            throw new Exception("Timestamp before the median time of the last blocks");
+        }
+        if (newBlock.getTimestamp() > System.currentTimeMillis() + MAX_FUTURE_TIME) {
+            throw new Exception("Timestamp in the future");
+        }
+        //all the blocks after the genesis block have state root
+        if (newBlock.getStateRoot() == null) {
+            throw new Exception("Missing state root");
+        }
+    }
+
+    /**
+     * median of the timestamps of the last MEDIAN_TIME_BLOCKS blocks
+     *
+     * @param chain blocks of the chain
+     * @return median time of the last blocks
+     */
+    private static long getMedianTime(List<Block> chain) {
+        int size = Math.min(MEDIAN_TIME_BLOCKS, chain.size());
+        long[] times = new long[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = chain.get(chain.size() - 1 - i).getTimestamp();
+        }
+        Arrays.sort(times);
+        return times[size / 2];
+    }
+
+    /**
+     * state of the products after the block
+     *
+     * @param state state before the block
+     * @param newBlock new block
+     * @return state after the block
+     * @throws Exception if the state root of the block is not correct
+     */
+    private static StateTree validateState(StateTree state, Block newBlock) throws Exception {
+        StateTree next = state.apply(newBlock.getTransactions());
+        //the genesis block doesn't have state root
+        if (newBlock.getStateRoot() != null && !Arrays.equals(next.getRoot(), newBlock.getStateRoot())) {
+            throw new Exception("Incorrect state root");
+        }
+        return next;
     }
 
     /**
@@ -151,10 +333,88 @@ public class BlockChain implements Serializable {
         return blocks.get(id);
     }
 
+    /**
+     * verify if the block is in the blockchain
+     *
+     * @param block block
+     * @return true if the block with the ID of block is equal to block
+     */
+    public boolean contains(Block block) {
+        return block.getID() >= 0 && block.getID() < blocks.size()
+                && blocks.get(block.getID()).equals(block);
+    }
+
+    /**
+     * verify if the block is in the blockchain
+     *
+     * @param id ID of the block
+     * @param hash hash of the block
+     * @return true if the block with the ID has the hash
+     */
+    public boolean contains(int id, byte[] hash) {
+        return id >= 0 && id < blocks.size()
+                && Arrays.equals(blocks.get(id).getCurrentHash(), hash);
+    }
+
     public List<Block> getBlocks() {
         return blocks;
     }
 
+    /**
+     * work of the blocks after the first blocks - the branches of a fork are
+     * compared by the work after the common blocks
+     *
+     * @param from ID of the first block
+     * @return sum of the work of the blocks [from, size[
+     */
+    public BigInteger getWork(int from) {
+        return getWork(blocks.subList(Math.max(0, from), blocks.size()));
+    }
+
+    /**
+     * sum of the work of the blocks
+     *
+     * @param list blocks
+     * @return sum of the work of the blocks
+     */
+    public static BigInteger getWork(List<Block> list) {
+        BigInteger work = BigInteger.ZERO;
+        for (Block block : list) {
+            work = work.add(block.getWork());
+        }
+        return work;
+    }
+
+    /**
+     * blocks of the blockchain [from, from + count[
+     *
+     * @param from ID of the first block
+     * @param count number of blocks
+     * @return blocks (less than count at the end of the blockchain)
+     */
+    public List<Block> getBlocks(int from, int count) {
+        List<Block> list = new ArrayList<>();
+        for (int id = Math.max(0, from); id < blocks.size() && id < from + count; id++) {
+            list.add(blocks.get(id));
+        }
+        return list;
+    }
+
+    /**
+     * hashes of the blocks of the blockchain [from, from + count[
+     *
+     * @param from ID of the first block
+     * @param count number of blocks
+     * @return hashes (less than count at the end of the blockchain)
+     */
+    public List<byte[]> getBlockHashes(int from, int count) {
+        List<byte[]> list = new ArrayList<>();
+        for (int id = Math.max(0, from); id < blocks.size() && id < from + count; id++) {
+            list.add(blocks.get(id).getCurrentHash());
+        }
+        return list;
+    }
+
     @Override
     public String toString() {
         return "BlockChain " + fileName + "\n" + blocks;
@@ -181,23 +441,353 @@ public class BlockChain implements Serializable {
     }
 
     /**
-     * load a blockchain in default fileName
+     * load a blockchain in default fileName - the blocks are read from the
+     * block store, a blockchain saved in fileName is moved to the store and a
+     * new blockchain is created only if the node has no blocks
      *
-     * @param prefix prefix of blockchainfile
-     * @return
+     * @param path path of the blockchain files
+     * @param fileName name of the blockchain file
+     * @return blockchain
+     * @throws Exception if the blocks of the node can not be loaded - the
+     * files are not changed
      */
-    public static BlockChain load(String path, String fileName) {
+    public static BlockChain load(String path, String fileName) throws Exception {
         try {
-            return load(path + fileName);
+            //store of a migration stopped during the swap
+            BlockMigration.recover(path);
+            //start from the last checkpoint
+            Checkpoint checkpoint = Checkpoint.load(path);
+            BlockStore store = new BlockStore(path);
+            if (checkpoint != null && !isCheckpointOf(checkpoint, store)) {
+                //the blockchain changed before the checkpoint - validate all the blocks
+                checkpoint = null;
+            }
+            //blocks migrated from the old version (validated by BlockMigration)
+            Checkpoint migration = Checkpoint.load(path, Checkpoint.MIGRATION_FILE);
+            if (migration != null && !isCheckpointOf(migration, store)) {
+                throw new Exception("The migrated blocks are not in the store - run BlockMigration");
+            }
+            if (store.size() > 0) {
+                BlockChain b = new BlockChain(path + fileName, store);
+                b.checkpoint = checkpoint;
+                b.legacyHeight = migration == null ? 0 : migration.getHeight();
+                //blocks after the checkpoint were not validated
+                b.verifyBlocks(Math.max(b.legacyHeight, checkpoint == null ? 0 : checkpoint.getHeight()));
+                return b;
+            }
+            //blockchain saved in one file
+            if (new File(path + fileName).exists()) {
+                BlockChain b = load(path + fileName);
+                for (Block block : b.blocks) {
+                    store.append(block);
+                }
+                b.store = store;
+                b.blocks = store.getBlocks();
+                return b;
+            }
+            //new node
+            return new BlockChain(path + fileName);
         } catch (Exception ex) {
+            //the blocks are kept to be recovered (ex: BlockMigration)
+            System.getLogger(BlockChain.class.getName()).log(System.Logger.Level.ERROR,
+                    "Blockchain of " + path + " not loaded", ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * validates the stored blocks - the content in parallel and the links
+     * (previous hash, dificulty, ID) and the state roots in order. The store
+     * is not changed: a node with an invalid block does not start
+     *
+     * @param from first block to validate
+     * @throws Exception with the first invalid block
+     */
+    private synchronized void verifyBlocks(int from) throws Exception {
+        //content of the blocks
+        VALIDATOR.validateAll(blocks.subList(from, blocks.size()));
+        //links and state roots
+        StateTree state = getState(from);
+        for (int id = from; id < blocks.size(); id++) {
             try {
-                BlockChain b = new BlockChain(path + fileName);
-                return b;
-            } catch (Exception ex1) {
-                System.getLogger(BlockChain.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex1);
-                return null;
+                validate(blocks.subList(0, id), blocks.get(id), legacyHeight);
+                state = validateState(state, blocks.get(id));
+            } catch (Exception ex) {
+                throw new Exception("Invalid block " + id + " : " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * verify if the checkpoint is the state of the store
+     *
+     * @param checkpoint checkpoint
+     * @param store block store
+     * @return true if the last block of the checkpoint is in the store
+     */
+    private static boolean isCheckpointOf(Checkpoint checkpoint, BlockStore store) {
+        try {
+            return checkpoint.getHeight() > 0 && checkpoint.getHeight() <= store.size()
+                    && checkpoint.getIndexLength() <= store.getIndexLength()
+                    && Arrays.equals(checkpoint.getTipHash(), store.read(checkpoint.getHeight() - 1).getCurrentHash());
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * verify if there are CHECKPOINT_INTERVAL blocks after the last
+     * checkpoint
+     *
+     * @return true if is time to save a checkpoint
+     */
+    public boolean needsCheckpoint() {
+        int height = checkpoint == null ? 0 : checkpoint.getHeight();
+        return store != null && blocks.size() - height >= CHECKPOINT_INTERVAL;
+    }
+
+    /**
+     * saves a checkpoint of the blockchain
+     *
+     * @param mempool pending transactions
+     * @throws IOException
+     */
+    public synchronized void saveCheckpoint(List<String> mempool) throws IOException {
+        Checkpoint newCheckpoint = store.checkpoint(mempool, getProductIndex().copy(), getState(blocks.size()));
+        newCheckpoint.save(getPath());
+        checkpoint = newCheckpoint;
+    }
+
+    /**
+     * pending transactions of the last checkpoint that are not in the blocks
+     * added after the checkpoint
+     *
+     * @return pending transactions
+     */
+    public List<String> getPendingTransactions() {
+        if (checkpoint == null) {
+            return new ArrayList<>();
+        }
+        List<String> pending = new ArrayList<>(checkpoint.getMempool());
+        //replay the blocks after the checkpoint
+        for (int id = checkpoint.getHeight(); id < blocks.size(); id++) {
+            pending.removeAll(blocks.get(id).getTransactions());
+        }
+        return pending;
+    }
+
+    /**
+     * index of the transactions of the products - starts from the index of the
+     * last checkpoint and adds the blocks after it
+     *
+     * @return index of the products
+     */
+    private synchronized ProductIndex getProductIndex() {
+        if (productIndex == null) {
+            ProductIndex index = null;
+            int height = 0;
+            if (checkpoint != null && checkpoint.getProductIndex() != null) {
+                index = checkpoint.getProductIndex().copy();
+                height = checkpoint.getHeight();
+            } else {
+                index = new ProductIndex();
+            }
+            for (int id = height; id < blocks.size(); id++) {
+                index.add(blocks.get(id));
+            }
+            productIndex = index;
+        }
+        return productIndex;
+    }
+
+    /**
+     * state of the products after the first blocks - the state is calculated
+     * from the nearest state kept (or the last checkpoint) and the blocks
+     * after it
+     *
+     * @param height number of blocks
+     * @return state tree
+     */
+    private synchronized StateTree getState(int height) {
+        if (states == null) {
+            states = new TreeMap<>();
+        }
+        Map.Entry<Integer, StateTree> nearest = states.floorEntry(height);
+        StateTree state;
+        int from;
+        if (checkpoint != null && checkpoint.getState() != null && checkpoint.getHeight() <= height
+                && (nearest == null || nearest.getKey() < checkpoint.getHeight())) {
+            state = checkpoint.getState();
+            from = checkpoint.getHeight();
+        } else if (nearest != null) {
+            state = nearest.getValue();
+            from = nearest.getKey();
+        } else {
+            state = new StateTree();
+            from = 0;
+        }
+        //replay the blocks
+        for (int id = from; id < height; id++) {
+            state = state.apply(blocks.get(id).getTransactions());
+            putState(id + 1, state);
+        }
+        return state;
+    }
+
+    /**
+     * keeps the state of the last blocks
+     *
+     * @param height number of blocks
+     * @param state state after the blocks
+     */
+    private synchronized void putState(int height, StateTree state) {
+        if (states == null) {
+            states = new TreeMap<>();
+        }
+        states.put(height, state);
+        while (states.size() > MAX_STATES) {
+            states.pollFirstEntry();
+        }
+    }
+
+    /**
+     * current state of a product
+     *
+     * @param productId id of the product
+     * @return state of the product or null if the product is not in the
+     * blockchain
+     */
+    public ProductState getProductState(String productId) {
+        return getState(blocks.size()).get(productId);
+    }
+
+    /**
+     * proof of the current state of a product (or that the product is not in
+     * the blockchain) against the state root of the last block
+     *
+     * @param productId id of the product
+     * @return proof of the state
+     */
+    public StateProof getStateProof(String productId) {
+        return getState(blocks.size()).getProof(productId);
+    }
+
+    /**
+     * transactions of a product
+     *
+     * @param productId id of the product
+     * @return transactions of the product in the order of the blockchain
+     */
+    public List<Object> getProductTransactions(String productId) {
+        List<Object> history = new ArrayList<>();
+        for (long position : getProductIndex().getPositions(productId)) {
+            history.add(getTransaction(position));
+        }
+        return history;
+    }
+
+    /**
+     * transactions of a product with the proofs of the blocks
+     *
+     * @param productId id of the product
+     * @return transactions of the product grouped by block with one merkle
+     * multi-proof per block
+     */
+    public ProductTrace getProductTrace(String productId) {
+        //indexes of the transactions in each block
+        Map<Integer, List<Integer>> byBlock = new LinkedHashMap<>();
+        for (long position : getProductIndex().getPositions(productId)) {
+            byBlock.computeIfAbsent(ProductIndex.blockOf(position), k -> new ArrayList<>())
+                    .add(ProductIndex.transactionOf(position));
+        }
+        ProductTrace trace = new ProductTrace(productId);
+        for (Map.Entry<Integer, List<Integer>> entry : byBlock.entrySet()) {
+            Block block = blocks.get(entry.getKey());
+            int[] indexes = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            List<Object> transactions = new ArrayList<>();
+            for (int index : indexes) {
+                transactions.add(block.getTransactions().get(index));
+            }
+            trace.add(block.getID(), block.getMerkleRoot(), transactions, block.getData().getMultiProof(indexes));
+        }
+        return trace;
+    }
+
+    /**
+     * last transaction of each product
+     *
+     * @return transactions in the order of the first transaction of the
+     * products
+     */
+    public List<Object> getLatestProductTransactions() {
+        List<Object> latest = new ArrayList<>();
+        for (long position : getProductIndex().getLastPositions()) {
+            latest.add(getTransaction(position));
+        }
+        return latest;
+    }
+
+    /**
+     * transactions that match the query starting in the cursor - with a
+     * productId only the transactions of the product are read
+     *
+     * @param query filter of the transactions
+     * @param cursor position of the first transaction (TransactionPage.START
+     * for the first page)
+     * @param pageSize max number of transactions
+     * @return page with the transactions and the cursor of the next page
+     */
+    public TransactionPage query(TransactionQuery query, long cursor, int pageSize) {
+        pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        List<FoodTransaction> page = new ArrayList<>();
+        if (cursor < 0) {
+            return new TransactionPage(page, TransactionPage.END);
+        }
+        if (query.getProductId() != null) {
+            for (long position : getProductIndex().getPositions(query.getProductId())) {
+                if (position < cursor) {
+                    continue;
+                }
+                FoodTransaction tx = ProductIndex.toTransaction(getTransaction(position));
+                if (query.matches(tx)) {
+                    if (page.size() == pageSize) {
+                        return new TransactionPage(page, position);
+                    }
+                    page.add(tx);
+                }
+            }
+            return new TransactionPage(page, TransactionPage.END);
+        }
+        //read the blocks from the cursor
+        int firstBlock = ProductIndex.blockOf(cursor);
+        for (int id = firstBlock; id < blocks.size(); id++) {
+            List<?> transactions = blocks.get(id).getTransactions();
+            int first = id == firstBlock ? ProductIndex.transactionOf(cursor) : 0;
+            for (int i = first; i < transactions.size(); i++) {
+                FoodTransaction tx = ProductIndex.toTransaction(transactions.get(i));
+                if (tx != null && query.matches(tx)) {
+                    if (page.size() == pageSize) {
+                        return new TransactionPage(page, ProductIndex.position(id, i));
+                    }
+                    page.add(tx);
+                }
             }
         }
+        return new TransactionPage(page, TransactionPage.END);
+    }
+
+    private Object getTransaction(long position) {
+        return blocks.get(ProductIndex.blockOf(position)).getTransactions()
+                .get(ProductIndex.transactionOf(position));
+    }
+
+    /**
+     * folder of the blockchain files
+     *
+     * @return path of the blockchain
+     */
+    private String getPath() {
+        return new File(fileName).getParent() + "/";
     }
 
     public void restart() throws IOException {
@@ -209,14 +799,256 @@ public class BlockChain implements Serializable {
 
     public String fileName = DEFAULT_FILE_PATH + DEFAULT_FILE_NAME; // name of blockchainfile
 
-    public void setBlocks(List<Block> newBlocks) throws Exception {
-        blocks = new CopyOnWriteArrayList<>(newBlocks);
-        save(fileName);
-        for (Block b : blocks) {
-            b.save(new File(fileName).getParent() + "/");
+    public synchronized List<Object> setBlocks(List<Block> newBlocks) throws Exception {
+        //blocks in common with the new blocks
+        int common = 0;
+        while (common < blocks.size() && common < newBlocks.size()
+                && blocks.get(common).equals(newBlocks.get(common))) {
+            common++;
         }
+        return setBlocks(common, newBlocks.subList(common, newBlocks.size()));
     }
-    
+
+    /**
+     * reorganization of the blockchain - the blocks after the first common
+     * blocks are replaced by the new blocks if they are valid and have more
+     * work than the blocks removed (or the same work and an older last block)
+     *
+     * @param common number of blocks kept (common ancestor)
+     * @param newBlocks blocks after the common blocks
+     * @return transactions of the removed blocks that are not in the new
+     * blocks
+     * @throws Exception if a new block is not valid or the new blocks have
+     * less work
+     */
+    public synchronized List<Object> setBlocks(int common, List<Block> newBlocks) throws Exception {
+        try (Branch branch = newBranch(common)) {
+            branch.add(newBlocks);
+            return setBlocks(branch);
+        }
+    }
+
+    /**
+     * new branch after the common blocks - the blocks of the branch are
+     * validated when they are added
+     *
+     * @param common number of blocks kept (common ancestor)
+     * @return empty branch
+     * @throws IOException if the staging store is not created
+     */
+    public synchronized Branch newBranch(int common) throws IOException {
+        if (common < 0 || common > blocks.size()) {
+            throw new IOException("Invalid common blocks " + common);
+        }
+        //the migrated blocks are valid only with the rules of the old version
+        if (common < legacyHeight) {
+            throw new IOException("Branch replaces migrated blocks");
+        }
+        return new Branch(common);
+    }
+
+    /**
+     * reorganization of the blockchain - the blocks after the common blocks
+     * of the branch are replaced by the blocks of the branch if they have more
+     * work than the blocks removed (or the same work and an older last block)
+     *
+     * @param branch branch validated
+     * @return transactions of the removed blocks that are not in the branch
+     * @throws Exception if the branch has less work or does not match the
+     * blockchain
+     */
+    public synchronized List<Object> setBlocks(Branch branch) throws Exception {
+        int common = branch.common;
+        //the blockchain changed after the branch was created
+        if (common > blocks.size()
+                || common > 0 && !Arrays.equals(blocks.get(common - 1).getCurrentHash(), branch.previousHash)) {
+            throw new Exception("Branch does not match the blockchain");
+        }
+        //fork choice - the branch with more work
+        if (common < blocks.size()) {
+            //same work - keeps the local blocks (first seen)
+            if (branch.work.compareTo(getWork(common)) <= 0) {
+                throw new Exception("Branch without more work");
+            }
+        }
+        //transactions that go back to the pending transactions
+        Set<Object> removed = new LinkedHashSet<>();
+        for (int id = common; id < blocks.size(); id++) {
+            for (Object tx : blocks.get(id).getTransactions()) {
+                removed.add(tx);
+            }
+        }
+        for (Block block : branch.getBlocks()) {
+            removed.removeAll(block.getTransactions());
+        }
+        //rewrite only the blocks after the common blocks (the store keeps the
+        //old blocks until the new blocks are written)
+        store.replace(common, branch.getBlocks());
+        //the checkpoint has blocks that are removed
+        if (checkpoint != null && common < checkpoint.getHeight()) {
+            checkpoint = null;
+            Checkpoint.delete(getPath());
+        }
+        if (productIndex != null) {
+            productIndex.removeFrom(common);
+            for (Block block : branch.getBlocks()) {
+                productIndex.add(block);
+            }
+        }
+        //states of the new blocks
+        if (states != null) {
+            states.tailMap(common, false).clear();
+        }
+        for (Map.Entry<Integer, StateTree> state : branch.states.entrySet()) {
+            putState(state.getKey(), state.getValue());
+        }
+        return new ArrayList<>(removed);
+    }
+
+    /**
+     * adds the blocks after the last block of the blockchain - the content of
+     * the batch is validated in parallel and the links in order before the
+     * blocks are appended
+     *
+     * @param batch new blocks
+     * @throws Exception if a block is not valid (no block is added)
+     */
+    public synchronized void addAll(List<Block> batch) throws Exception {
+        //content of the blocks (in parallel)
+        VALIDATOR.validateAll(batch);
+        //links and states of the blocks
+        ChainView chain = new ChainView(blocks, blocks.size(), new ArrayList<>());
+        StateTree state = getState(blocks.size());
+        List<StateTree> newStates = new ArrayList<>();
+        for (Block block : batch) {
+            validate(chain, block, legacyHeight);
+            state = validateState(state, block);
+            newStates.add(state);
+            chain.suffix.add(block);
+        }
+        //::::::: SUCESS ::::::::::::
+        for (int i = 0; i < batch.size(); i++) {
+            store.append(batch.get(i));
+            if (productIndex != null) {
+                productIndex.add(batch.get(i));
+            }
+            putState(blocks.size(), newStates.get(i));
+        }
+    }
+
+    /**
+     * Branch of a fork after the common blocks.
+     *
+     * The blocks are added in batches - each batch is validated (content in
+     * parallel, links and state in order) and written to a staging store, so
+     * the heap holds one batch and the last states, not the whole branch.
+     */
+    public class Branch implements Closeable {
+
+        //number of blocks kept (common ancestor)
+        private final int common;
+        //hash of the last common block
+        private final byte[] previousHash;
+        //blocks of the branch
+        private final BlockStore staging;
+        //common blocks followed by the blocks of the branch
+        private final ChainView chain;
+        //state of the products after the last block of the branch
+        private StateTree state;
+        //number of blocks -> state of the last blocks of the branch
+        private final TreeMap<Integer, StateTree> states = new TreeMap<>();
+        //work of the blocks of the branch
+        private BigInteger work = BigInteger.ZERO;
+
+        private Branch(int common) throws IOException {
+            this.common = common;
+            this.previousHash = common > 0 ? blocks.get(common - 1).getCurrentHash() : null;
+            this.staging = new BlockStore(Files.createTempDirectory(
+                    Paths.get(getPath()), "branch").toString() + "/", common);
+            this.chain = new ChainView(blocks, common, staging.getBlocks());
+            this.state = getState(common);
+        }
+
+        /**
+         * validates the blocks and adds them to the end of the branch
+         *
+         * @param batch blocks after the last block of the branch
+         * @throws Exception if a block is not valid (the blocks before it are
+         * kept)
+         */
+        public void add(List<Block> batch) throws Exception {
+            //content of the blocks (in parallel)
+            VALIDATOR.validateAll(batch);
+            for (Block block : batch) {
+                validate(chain, block, legacyHeight);
+                state = validateState(state, block);
+                staging.append(block);
+                states.put(block.getID() + 1, state);
+                if (states.size() > MAX_STATES) {
+                    states.pollFirstEntry();
+                }
+                work = work.add(block.getWork());
+            }
+        }
+
+        /**
+         * @return number of blocks of the branch
+         */
+        public int size() {
+            return staging.size();
+        }
+
+        /**
+         * @return blocks of the branch (read from the staging store)
+         */
+        public List<Block> getBlocks() {
+            return staging.getBlocks();
+        }
+
+        /**
+         * @return last block of the branch
+         */
+        public Block getLastBlock() {
+            return chain.get(chain.size() - 1);
+        }
+
+        /**
+         * deletes the staging store
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            staging.delete();
+        }
+    }
+
+    /**
+     * first blocks of the blockchain followed by new blocks
+     */
+    private static class ChainView extends AbstractList<Block> {
+
+        final List<Block> prefix;
+        final int common;
+        final List<Block> suffix;
+
+        ChainView(List<Block> prefix, int common, List<Block> suffix) {
+            this.prefix = prefix;
+            this.common = common;
+            this.suffix = suffix;
+        }
+
+        @Override
+        public Block get(int index) {
+            return index < common ? prefix.get(index) : suffix.get(index - common);
+        }
+
+        @Override
+        public int size() {
+            return common + suffix.size();
+        }
+    }
+
     public List getTransactions(){
         List allTransactions = new ArrayList();
         for(Block b : blocks){
@@ -238,8 +1070,7 @@ public class BlockChain implements Serializable {
         transactions.add("abcd");
 
         Block newBlock = blockchain.createNewBlock(transactions);
-        int nonce = MinerDistibuted.getNonce(newBlock.getHeaderDataBase64(), 3);
-        newBlock.setNonce(nonce);
+        newBlock.mine();
         blockchain.add(newBlock);
         System.out.println(blockchain.toString());
 
@@ -0,0 +1,411 @@
+package foodchain;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import utils.Utils;
+
+/**
+ * Converts the blocks of a node to the BinaryCodec format.
+ *
+ * The blocks are read from the block store, from the blockchain file (.blc) or
+ * from the block files (ID.blk) saved with java serialization and are written
+ * in a new block store. The old files are not removed.
+ *
+ * The files of the old version (int nonce, header without extra nonce,
+ * dificulty in Base64 zeros) are read by LegacyInputStream, which maps the old
+ * classes to LegacyBlock and LegacyMerkleTree. The old blocks are validated
+ * with the rules of the old version (hash, zeros, previous hash, dificulty,
+ * merkle root and transactions) and the tip is saved in the migration
+ * checkpoint - the node trusts the blocks up to that checkpoint and validates
+ * the blocks after it with the rules of the new version.
+ *
+ * The new store and the migration checkpoint are written in the folder
+ * MIGRATION_FOLDER with the list of their files. The list marks the new store
+ * as complete: the files are moved to the path of the node (index last) and
+ * the old files are deleted after the move. A node that stops during the swap
+ * completes it with recover before the store is opened.
+ *
+ * usage: BlockMigration path [blockchain file name]
+ */
+public class BlockMigration {
+
+    //serialVersionUID of the classes of the old version
+    static final long LEGACY_BLOCK_UID = 202510081445L;
+    static final long LEGACY_MERKLE_TREE_UID = 202209131142L;
+    static final long LEGACY_BLOCKCHAIN_UID = 202510081528L;
+    //folder of the new store
+    static final String MIGRATION_FOLDER = "migration/";
+    //files of the new store (written when the new store is complete)
+    static final String FILES_LIST = "files.lst";
+
+    /**
+     * migrates the blocks of the path to a new block store
+     *
+     * @param path path of the node
+     * @param fileName blockchain file name
+     * @return number of blocks migrated
+     * @throws Exception if the blocks can not be read or an old block is not
+     * valid (the files are not changed)
+     */
+    public static int migrate(String path, String fileName) throws Exception {
+        //swap of a migration not completed
+        recover(path);
+        //block store - the migrated blocks are kept
+        BlockStore store = new File(path + BlockStore.INDEX_FILE).exists() ? new BlockStore(path) : null;
+        if (store != null && store.size() > 0) {
+            List<Block> blocks = new ArrayList<>();
+            for (int i = 0; i < store.size(); i++) {
+                blocks.add(store.read(i));
+            }
+            Checkpoint migration = Checkpoint.load(path, Checkpoint.MIGRATION_FILE);
+            writeBlocks(path, blocks, migration == null ? 0 : migration.getHeight());
+            return blocks.size();
+        }
+        //files of the old version
+        List<Object> objects = readObjects(path, fileName);
+        int legacyHeight = validateLegacy(objects);
+        List<Block> blocks = new ArrayList<>();
+        for (Object obj : objects) {
+            blocks.add(obj instanceof LegacyBlock ? ((LegacyBlock) obj).toBlock() : (Block) obj);
+        }
+        writeBlocks(path, blocks, legacyHeight);
+        return blocks.size();
+    }
+
+    /**
+     * reads the blocks saved with java serialization in the blockchain file or
+     * in the block files
+     *
+     * @param path path of the node
+     * @param fileName blockchain file name
+     * @return blocks (Block or LegacyBlock)
+     * @throws Exception
+     */
+    static List<Object> readObjects(String path, String fileName) throws Exception {
+        //blockchain file
+        if (new File(path + fileName).exists()) {
+            try (ObjectInputStream in = new LegacyInputStream(new FileInputStream(path + fileName))) {
+                Object obj = in.readObject();
+                if (obj instanceof LegacyBlockChain) {
+                    return new ArrayList<>(((LegacyBlockChain) obj).blocks);
+                }
+                throw new IOException("Not a blockchain file " + path + fileName);
+            }
+        }
+        //block files
+        List<Object> blocks = new ArrayList<>();
+        for (File file = new File(path + "0.blk"); file.exists(); file = new File(path + blocks.size() + ".blk")) {
+            try (ObjectInputStream in = new LegacyInputStream(new FileInputStream(file))) {
+                blocks.add(in.readObject());
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * validates the blocks of the old version with the rules of the old
+     * version - the old blocks must be the first blocks
+     *
+     * @param blocks blocks (Block or LegacyBlock)
+     * @return number of blocks of the old version
+     * @throws Exception with the first invalid block
+     */
+    static int validateLegacy(List<Object> blocks) throws Exception {
+        int legacyHeight = 0;
+        while (legacyHeight < blocks.size() && blocks.get(legacyHeight) instanceof LegacyBlock) {
+            LegacyBlock block = (LegacyBlock) blocks.get(legacyHeight);
+            String error = block.check(legacyHeight == 0 ? null : (LegacyBlock) blocks.get(legacyHeight - 1));
+            if (error != null) {
+                throw new Exception("Invalid block " + legacyHeight + " of the old version : " + error);
+            }
+            legacyHeight++;
+        }
+        for (int id = legacyHeight; id < blocks.size(); id++) {
+            if (!(blocks.get(id) instanceof Block)) {
+                throw new Exception("Block " + id + " of the old version after new blocks");
+            }
+        }
+        return legacyHeight;
+    }
+
+    /**
+     * writes the blocks in a new store of the path
+     *
+     * @param path path of the node
+     * @param blocks blocks
+     * @param legacyHeight number of blocks of the old version
+     * @throws IOException
+     */
+    public static void writeBlocks(String path, List<Block> blocks, int legacyHeight) throws IOException {
+        //new store in a temporary folder
+        File tmp = new File(path + MIGRATION_FOLDER);
+        File[] old = tmp.listFiles();
+        if (old != null) {
+            for (File f : old) {
+                f.delete();
+            }
+        }
+        BlockStore store = new BlockStore(tmp.getPath() + "/");
+        for (Block block : blocks) {
+            store.append(block);
+        }
+        List<String> names = new ArrayList<>();
+        for (File f : listStoreFiles(tmp)) {
+            names.add(f.getName());
+        }
+        //tip of the blocks validated with the rules of the old version
+        if (legacyHeight > 0) {
+            new Checkpoint(legacyHeight, blocks.get(legacyHeight - 1).getCurrentHash(),
+                    BlockStore.getIndexLength(legacyHeight), new ArrayList<>(), null, null)
+                    .save(tmp.getPath() + "/", Checkpoint.MIGRATION_FILE);
+            names.add(Checkpoint.MIGRATION_FILE);
+        }
+        //the new store is complete
+        Path part = new File(tmp, FILES_LIST + ".tmp").toPath();
+        Files.write(part, names);
+        Files.move(part, new File(tmp, FILES_LIST).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        //replace the old store
+        recover(path);
+    }
+
+    /**
+     * moves the new store of a complete migration to the path of the node -
+     * the segments first and the index last, then the old files are deleted
+     * (the files already moved are not moved again)
+     *
+     * @param path path of the node
+     * @throws IOException
+     */
+    public static void recover(String path) throws IOException {
+        File tmp = new File(path + MIGRATION_FOLDER);
+        File list = new File(tmp, FILES_LIST);
+        if (!list.exists()) {
+            return;
+        }
+        List<String> names = Files.readAllLines(list.toPath());
+        //the index commits the new store
+        List<String> order = new ArrayList<>(names);
+        if (order.remove(BlockStore.INDEX_FILE)) {
+            order.add(BlockStore.INDEX_FILE);
+        }
+        for (String name : order) {
+            File f = new File(tmp, name);
+            if (f.exists()) {
+                Files.move(f.toPath(), new File(path + name).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        //segments of the old store
+        for (File f : listStoreFiles(new File(path))) {
+            if (!names.contains(f.getName())) {
+                f.delete();
+            }
+        }
+        //the checkpoint has the old index
+        Checkpoint.delete(path);
+        if (!names.contains(Checkpoint.MIGRATION_FILE)) {
+            new File(path + Checkpoint.MIGRATION_FILE).delete();
+        }
+        //migration completed
+        list.delete();
+        File[] rest = tmp.listFiles();
+        if (rest != null) {
+            for (File f : rest) {
+                f.delete();
+            }
+        }
+        tmp.delete();
+    }
+
+    private static List<File> listStoreFiles(File folder) {
+        List<File> files = new ArrayList<>();
+        File[] list = folder.listFiles();
+        if (list != null) {
+            for (File f : list) {
+                if (f.getName().equals(BlockStore.INDEX_FILE) || f.getName().endsWith(".seg")) {
+                    files.add(f);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static long sizeOfStore(String path) {
+        long size = 0;
+        for (File f : listStoreFiles(new File(path))) {
+            size += f.length();
+        }
+        return size;
+    }
+
+    /**
+     * reads the files of the old version - the descriptors of the old Block,
+     * MerkleTree and BlockChain are replaced by the legacy classes with the
+     * same fields (the files of the new version are read without changes)
+     */
+    static class LegacyInputStream extends ObjectInputStream {
+
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals(Block.class.getName()) && desc.getSerialVersionUID() == LEGACY_BLOCK_UID) {
+                return ObjectStreamClass.lookup(LegacyBlock.class);
+            }
+            if (desc.getName().equals(MerkleTree.class.getName()) && desc.getSerialVersionUID() == LEGACY_MERKLE_TREE_UID) {
+                return ObjectStreamClass.lookup(LegacyMerkleTree.class);
+            }
+            if (desc.getName().equals(BlockChain.class.getName()) && desc.getSerialVersionUID() == LEGACY_BLOCKCHAIN_UID) {
+                return ObjectStreamClass.lookup(LegacyBlockChain.class);
+            }
+            return desc;
+        }
+    }
+
+    /**
+     * block of the old version (same fields of the old Block)
+     */
+    static class LegacyBlock implements Serializable {
+
+        int ID;
+        byte[] previousHash;
+        byte[] merkleRoot;
+        LegacyMerkleTree data;
+        long timestamp;
+        int dificulty; //number of Base64 zeros at the start of the hash
+        int nonce;
+        byte[] currentHash;
+
+        /**
+         * header of the old version - without state root and extra nonce
+         *
+         * @return byte array with fields mined
+         */
+        byte[] getHeaderData() {
+            byte[] bytes = Utils.toBytes(ID);
+            bytes = Utils.concatenate(bytes, Utils.toBytes(timestamp));
+            bytes = Utils.concatenate(bytes, Utils.toBytes(previousHash));
+            bytes = Utils.concatenate(bytes, Utils.toBytes(merkleRoot));
+            return Utils.concatenate(bytes, Utils.toBytes(dificulty));
+        }
+
+        /**
+         * rules of the old version
+         *
+         * @param previous previous block or null in the genesis block
+         * @return reason of the error or null if the block is valid
+         */
+        String check(LegacyBlock previous) {
+            //hash of the header and zeros at the start
+            String txtHash = currentHash == null ? "" : new String(currentHash);
+            if (dificulty < 0 || txtHash.length() < dificulty
+                    || !txtHash.substring(0, dificulty).equals("0".repeat(dificulty))) {
+                return "Invalid block";
+            }
+            byte[] myHash = MinerDistibuted.getHash(Base64.getEncoder().encodeToString(getHeaderData()) + nonce).getBytes();
+            if (!Arrays.equals(myHash, currentHash)) {
+                return "Invalid block";
+            }
+            //links - the dificulty of the old version doesn't change
+            if (previous != null) {
+                if (!Arrays.equals(previous.currentHash, previousHash)) {
+                    return "block dont match - previous hash incorrect";
+                }
+                if (previous.dificulty != dificulty) {
+                    return "Incorrect dificulty";
+                }
+                if (previous.ID + 1 != ID) {
+                    return "Incorrect ID";
+                }
+            } else if (ID != 0) {
+                return "Incorrect ID";
+            }
+            //merkle root of the old leaves (java serialization)
+            if (!Arrays.equals(toTree().getRoot(), merkleRoot)) {
+                return "Invalid merkle root";
+            }
+            //food transactions
+            for (Object element : data.elements) {
+                FoodTransaction tx = ProductIndex.toTransaction(element);
+                if (tx != null && !tx.isValid()) {
+                    return "Invalid transaction";
+                }
+            }
+            return null;
+        }
+
+        /**
+         * merkle tree of the elements with the leaves of the old version
+         */
+        MerkleTree<Object> toTree() {
+            return new MerkleTree<>(data.elements, LeafEncoder.JAVA_SERIALIZATION);
+        }
+
+        /**
+         * block of the new version with the fields of the old block - the hash
+         * is not changed, so the block is valid only with the rules of the old
+         * version
+         *
+         * @return block without state root
+         */
+        Block toBlock() {
+            return new Block(ID, previousHash, merkleRoot, null, toTree(), timestamp,
+                    dificulty, 0, nonce, currentHash);
+        }
+
+        private static final long serialVersionUID = LEGACY_BLOCK_UID;
+    }
+
+    /**
+     * merkle tree of the old version (same fields of the old MerkleTree)
+     */
+    static class LegacyMerkleTree implements Serializable {
+
+        List<List<byte[]>> hashTree;
+        List<Object> elements;
+
+        private static final long serialVersionUID = LEGACY_MERKLE_TREE_UID;
+    }
+
+    /**
+     * blockchain of the old version (same fields of the old BlockChain)
+     */
+    static class LegacyBlockChain implements Serializable {
+
+        List<Object> blocks;
+        String fileName;
+        String DEFAULT_FILE_PATH;
+        String DEFAULT_FILE_NAME;
+
+        private static final long serialVersionUID = LEGACY_BLOCKCHAIN_UID;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: BlockMigration path [blockchain file name]");
+            return;
+        }
+        String path = args[0].endsWith("/") ? args[0] : args[0] + "/";
+        String fileName = args.length > 1 ? args[1] : "blockchain.blc";
+        long before = sizeOfStore(path);
+        int size = migrate(path, fileName);
+        System.out.println("Blocks migrated : " + size);
+        System.out.println("Store size      : " + before + " -> " + sizeOfStore(path) + " bytes");
+    }
+}
@@ -0,0 +1,463 @@
+package foodchain;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only storage of the blocks of a blockchain.
+ *
+ * The blocks are written one after the other in segment files
+ * (blocks-00000.seg, blocks-00001.seg, ...) and the index file (blocks.idx)
+ * keeps, for each block ID, the segment, offset and length of the block. Adding
+ * a block writes only the bytes of the new block and one index entry.
+ *
+ * The entries of the index have a fixed size, so the entry of a block is read
+ * directly from the index file and opening the store reads only the last
+ * entry. The segments are read through memory maps and a block is decoded
+ * only when it is requested. The last decoded blocks are kept in a bounded
+ * cache, so the heap holds the cache, not the whole chain.
+ *
+ * A reorganization replaces the last blocks with replace: the entries of the
+ * index that are replaced are saved in the rollback file, the new blocks are
+ * written after the last block (the bytes of the old blocks are kept) and the
+ * rollback file is deleted when the index is complete. A replace that is not
+ * completed is undone when the store is opened.
+ */
+public class BlockStore {
+
+    //max size of a segment file
+    public static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    //number of decoded blocks kept in memory
+    public static final int CACHE_SIZE = 256;
+    //name of the index file
+    public static final String INDEX_FILE = "blocks.idx";
+    //entries of the index replaced by a replace not completed
+    public static final String ROLLBACK_FILE = "blocks.rbk";
+    //bytes of an entry in the index [ segment(int) offset(long) length(int) ]
+    private static final int ENTRY_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final String path;
+    //ID of the first block (the staging store of a branch starts after the
+    //common blocks)
+    private final int first;
+    //number of blocks in the store
+    private int size;
+    //segment and end of the last block
+    private int lastSegment;
+    private long lastEnd;
+    //read only maps of the segments
+    private final Map<Integer, MappedByteBuffer> maps = new HashMap<>();
+    //last decoded blocks
+    private final Map<Integer, Block> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * opens (or creates) the store in the folder
+     *
+     * @param path folder of the store
+     * @throws IOException
+     */
+    public BlockStore(String path) throws IOException {
+        this(path, 0);
+    }
+
+    /**
+     * opens (or creates) the store in the folder
+     *
+     * @param path folder of the store
+     * @param first ID of the first block of the store
+     * @throws IOException
+     */
+    BlockStore(String path, int first) throws IOException {
+        this.path = path;
+        this.first = first;
+        new File(path).mkdirs();
+        rollback();
+        try (RandomAccessFile index = new RandomAccessFile(getIndexFile(), "rw")) {
+            //discard an incomplete entry
+            size = (int) (index.length() / ENTRY_SIZE);
+            index.setLength((long) size * ENTRY_SIZE);
+        }
+        setLastBlock();
+    }
+
+    /**
+     * creates a checkpoint of the store
+     *
+     * @param mempool pending transactions
+     * @param productIndex index of the products
+     * @param state state of the products
+     * @return checkpoint
+     * @throws IOException
+     */
+    public synchronized Checkpoint checkpoint(List<String> mempool, ProductIndex productIndex, StateTree state) throws IOException {
+        return new Checkpoint(size, read(first + size - 1).getCurrentHash(), getIndexLength(),
+                mempool, productIndex, state);
+    }
+
+    /**
+     * length of the index file
+     *
+     * @return bytes of the entries of the blocks
+     */
+    public synchronized long getIndexLength() {
+        return getIndexLength(size);
+    }
+
+    /**
+     * length of the index file with a number of blocks
+     *
+     * @param size number of blocks
+     * @return bytes of the entries of the blocks
+     */
+    static long getIndexLength(int size) {
+        return (long) size * ENTRY_SIZE;
+    }
+
+    /**
+     * number of blocks in the store
+     *
+     * @return number of blocks
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * appends a block to the store - the ID of the block must be the ID after
+     * the last block of the store
+     *
+     * @param block block
+     * @throws IOException
+     */
+    public synchronized void append(Block block) throws IOException {
+        if (block.getID() != first + size) {
+            throw new IOException("Block " + block.getID() + " not in position " + (first + size));
+        }
+        try (RandomAccessFile index = new RandomAccessFile(getIndexFile(), "rw")) {
+            write(index, size, block);
+        }
+        size++;
+        cache.put(block.getID(), block);
+    }
+
+    /**
+     * replaces the blocks after the first keep blocks of the store - the
+     * store has the old blocks or the new blocks if the node stops during the
+     * replace
+     *
+     * @param keep number of blocks kept
+     * @param newBlocks blocks after the blocks kept
+     * @throws IOException
+     */
+    public synchronized void replace(int keep, List<Block> newBlocks) throws IOException {
+        if (keep < 0 || keep > size) {
+            throw new IOException("Invalid number of blocks " + keep);
+        }
+        //entries replaced and length of the index
+        byte[] entries = new byte[(size - keep) * ENTRY_SIZE];
+        try (RandomAccessFile index = new RandomAccessFile(getIndexFile(), "r")) {
+            index.seek((long) keep * ENTRY_SIZE);
+            index.readFully(entries);
+        }
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + Long.BYTES + entries.length);
+        record.putInt(keep).putLong(getIndexLength()).put(entries);
+        File part = new File(path + ROLLBACK_FILE + ".tmp");
+        Files.write(part.toPath(), record.array());
+        Files.move(part.toPath(), Paths.get(path + ROLLBACK_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try {
+            int position = keep;
+            try (RandomAccessFile index = new RandomAccessFile(getIndexFile(), "rw")) {
+                //new blocks after the last block
+                for (Block block : newBlocks) {
+                    if (block.getID() != first + position) {
+                        throw new IOException("Block " + block.getID() + " not in position " + (first + position));
+                    }
+                    write(index, position++, block);
+                }
+                index.setLength((long) position * ENTRY_SIZE);
+            }
+            //the new index is complete
+            Files.delete(Paths.get(path + ROLLBACK_FILE));
+            size = position;
+        } catch (IOException ex) {
+            rollback();
+            size = (int) (new File(getIndexFile()).length() / ENTRY_SIZE);
+            throw ex;
+        } finally {
+            setLastBlock();
+            cache.keySet().removeIf(id -> id >= first + keep);
+        }
+    }
+
+    /**
+     * restores the entries of the index of a replace not completed
+     *
+     * @throws IOException
+     */
+    private void rollback() throws IOException {
+        File file = new File(path + ROLLBACK_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        int keep = record.getInt();
+        long length = record.getLong();
+        byte[] entries = new byte[record.remaining()];
+        record.get(entries);
+        try (RandomAccessFile index = new RandomAccessFile(getIndexFile(), "rw")) {
+            index.seek((long) keep * ENTRY_SIZE);
+            index.write(entries);
+            index.setLength(length);
+        }
+        Files.delete(file.toPath());
+    }
+
+    /**
+     * writes the block after the last block and its entry in the index
+     *
+     * @param index index file
+     * @param position position of the block in the store
+     * @param block block
+     * @throws IOException
+     */
+    private void write(RandomAccessFile index, int position, Block block) throws IOException {
+        byte[] data = toBytes(block);
+        //new segment if the block does not fit
+        int segmentNumber = lastSegment;
+        long offset = lastEnd;
+        if (offset > 0 && offset + data.length > SEGMENT_SIZE) {
+            segmentNumber++;
+            offset = 0;
+        }
+        //write the block
+        try (RandomAccessFile segment = new RandomAccessFile(getSegmentFile(segmentNumber), "rw")) {
+            segment.seek(offset);
+            segment.write(data);
+        }
+        //write the entry of the block
+        index.seek((long) position * ENTRY_SIZE);
+        index.writeInt(segmentNumber);
+        index.writeLong(offset);
+        index.writeInt(data.length);
+        lastSegment = segmentNumber;
+        lastEnd = offset + data.length;
+    }
+
+    /**
+     * reads the block from the store
+     *
+     * @param ID id of the block
+     * @return block
+     * @throws IOException
+     */
+    public synchronized Block read(int ID) throws IOException {
+        if (ID < first || ID >= first + size) {
+            throw new IOException("Block " + ID + " not in store");
+        }
+        Block block = cache.get(ID);
+        if (block == null) {
+            ByteBuffer entry = readEntry(ID - first);
+            int segmentNumber = entry.getInt();
+            long offset = entry.getLong();
+            byte[] data = new byte[entry.getInt()];
+            getMap(segmentNumber, offset + data.length).get((int) offset, data);
+            block = fromBytes(data);
+            cache.put(ID, block);
+        }
+        return block;
+    }
+
+    /**
+     * list of the blocks of the store - the blocks are read when they are
+     * used
+     *
+     * @return list of blocks
+     */
+    public List<Block> getBlocks() {
+        return new BlockList(this);
+    }
+
+    /**
+     * removes the blocks with ID greater or equal to newSize - the bytes of
+     * the segments are reused by the next blocks
+     *
+     * @param newSize number of blocks to keep
+     * @throws IOException
+     */
+    public synchronized void truncate(int newSize) throws IOException {
+        if (newSize >= size) {
+            return;
+        }
+        newSize = Math.max(0, newSize);
+        try (RandomAccessFile index = new RandomAccessFile(getIndexFile(), "rw")) {
+            index.setLength((long) newSize * ENTRY_SIZE);
+        }
+        size = newSize;
+        setLastBlock();
+        cache.keySet().removeIf(id -> id >= first + size);
+    }
+
+    /**
+     * deletes the files of the store
+     *
+     * @throws IOException
+     */
+    public synchronized void delete() throws IOException {
+        maps.clear();
+        cache.clear();
+        for (int number = 0; number <= lastSegment; number++) {
+            Files.deleteIfExists(Paths.get(getSegmentFile(number)));
+        }
+        Files.deleteIfExists(Paths.get(getIndexFile()));
+        Files.deleteIfExists(Paths.get(path));
+        size = 0;
+    }
+
+    /**
+     * segment and end of the last block
+     */
+    private void setLastBlock() throws IOException {
+        if (size == 0) {
+            lastSegment = 0;
+            lastEnd = 0;
+            return;
+        }
+        ByteBuffer entry = readEntry(size - 1);
+        lastSegment = entry.getInt();
+        lastEnd = entry.getLong() + entry.getInt();
+    }
+
+    /**
+     * entry of the block in the index file
+     *
+     * @param position position of the block in the store
+     * @return [ segment(int) offset(long) length(int) ]
+     * @throws IOException
+     */
+    private ByteBuffer readEntry(int position) throws IOException {
+        byte[] entry = new byte[ENTRY_SIZE];
+        try (RandomAccessFile index = new RandomAccessFile(getIndexFile(), "r")) {
+            index.seek((long) position * ENTRY_SIZE);
+            index.readFully(entry);
+        }
+        return ByteBuffer.wrap(entry);
+    }
+
+    /**
+     * map of the segment with at least length bytes
+     *
+     * @param segmentNumber number of segment
+     * @param length minimum length of the map
+     * @return read only map of the segment
+     * @throws IOException
+     */
+    private MappedByteBuffer getMap(int segmentNumber, long length) throws IOException {
+        MappedByteBuffer map = maps.get(segmentNumber);
+        //the segment grows with new blocks
+        if (map == null || map.capacity() < length) {
+            try (RandomAccessFile segment = new RandomAccessFile(getSegmentFile(segmentNumber), "r")) {
+                map = segment.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.length());
+            }
+            maps.put(segmentNumber, map);
+        }
+        return map;
+    }
+
+    private String getIndexFile() {
+        return path + INDEX_FILE;
+    }
+
+    private String getSegmentFile(int number) {
+        return path + String.format("blocks-%05d.seg", number);
+    }
+
+    /**
+     * converts a block to bytes
+     *
+     * @param block block
+     * @return bytes of the block
+     * @throws IOException
+     */
+    static byte[] toBytes(Block block) throws IOException {
+        return BinaryCodec.encodeBlock(block);
+    }
+
+    /**
+     * converts bytes to a block - blocks stored with java serialization are
+     * also accepted
+     *
+     * @param data bytes of the block
+     * @return block
+     * @throws IOException
+     */
+    static Block fromBytes(byte[] data) throws IOException {
+        if (BinaryCodec.isEncoded(data)) {
+            return BinaryCodec.decodeBlock(data);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (Block) in.readObject();
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * read only list of the blocks of the store - the blocks are decoded when
+     * they are used
+     */
+    private static class BlockList extends AbstractList<Block> implements Serializable {
+
+        private final transient BlockStore store;
+
+        BlockList(BlockStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public Block get(int index) {
+            try {
+                return store.read(store.first + index);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public int size() {
+            return store.size();
+        }
+
+        /**
+         * the list is sent to other nodes with all the blocks
+         */
+        private Object writeReplace() throws ObjectStreamException {
+            return new ArrayList<>(this);
+        }
+
+        private static final long serialVersionUID = 202610180002L;
+    }
+}
@@ -0,0 +1,144 @@
+package foodchain;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Validation of the content of the blocks in a fork-join pool.
+ *
+ * Stages of one block:
+ *
+ * 1. header - the hash of the header and the proof of work
+ *
+ * 2. merkle root - the root of the hashes of the elements (large trees are
+ * hashed in parallel) and the leaves of the tree of the block (the proofs of
+ * the products are built from them)
+ *
+ * 3. transactions - structure and signature of each food transaction (in
+ * parallel)
+ *
+ * The bulk mode validates the blocks of a chain in parallel. The links between
+ * the blocks (previous hash, dificulty, ID) are verified by the BlockChain.
+ */
+public class BlockValidator {
+
+    private final ForkJoinPool pool;
+
+    public BlockValidator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * constructor
+     *
+     * @param pool pool of threads of the validation
+     */
+    public BlockValidator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * validates the content of the block
+     *
+     * @param block block
+     * @throws Exception with the reason if the block is not valid
+     */
+    public void validate(Block block) throws Exception {
+        String error = run(() -> check(block));
+        if (error != null) {
+            throw new Exception(error);
+        }
+    }
+
+    /**
+     * validates the content of the blocks in parallel
+     *
+     * @param blocks blocks
+     * @throws Exception with the reason if a block is not valid
+     */
+    public void validateAll(List<Block> blocks) throws Exception {
+        int index = findInvalid(blocks);
+        if (index >= 0) {
+            throw new Exception("Block " + blocks.get(index).getID() + " : " + check(blocks.get(index)));
+        }
+    }
+
+    /**
+     * first block that is not valid
+     *
+     * @param blocks blocks
+     * @return index of the first invalid block or -1 if all the blocks are
+     * valid
+     * @throws Exception if the validation is interrupted
+     */
+    public int findInvalid(List<Block> blocks) throws Exception {
+        return run(() -> IntStream.range(0, blocks.size()).parallel()
+                .filter(i -> check(blocks.get(i)) != null)
+                .min().orElse(-1));
+    }
+
+    /**
+     * stages of the validation of one block
+     *
+     * @param block block
+     * @return reason of the error or null if the block is valid
+     */
+    private String check(Block block) {
+        //header and proof of work
+        if (!block.isValid()) {
+            return "Invalid block";
+        }
+        List<?> elements = block.getTransactions();
+        if (elements.isEmpty()) {
+            return block.getData().getLeafCount() == 0 ? null : "Invalid merkle tree";
+        }
+        //merkle root of the elements - only the blocks created before the
+        //canonical encoding of the leaves (blocks without state root) use
+        //java serialization
+        MerkleTree<?> tree = new MerkleTree<>(elements);
+        if (!Arrays.equals(tree.getRoot(), block.getMerkleRoot()) && block.getStateRoot() == null) {
+            tree = new MerkleTree<>(elements, LeafEncoder.JAVA_SERIALIZATION);
+        }
+        if (!Arrays.equals(tree.getRoot(), block.getMerkleRoot())) {
+            return "Invalid merkle root";
+        }
+        //leaves received with the block are the leaves of the elements
+        if (!sameLeaves(tree.getLeaves(), block.getData().getLeaves())) {
+            return "Invalid merkle tree";
+        }
+        //food transactions
+        boolean valid = IntStream.range(0, elements.size()).parallel().allMatch(i -> {
+            FoodTransaction tx = ProductIndex.toTransaction(elements.get(i));
+            //other data (ex: genesis block) or valid transaction
+            return tx == null || tx.isValid();
+        });
+        return valid ? null : "Invalid transaction";
+    }
+
+    private static boolean sameLeaves(List<byte[]> expected, List<?> leaves) {
+        if (expected.size() != leaves.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (!Arrays.equals(expected.get(i), (byte[]) leaves.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * runs the task in the pool of the validator
+     */
+    private <T> T run(Callable<T> task) throws Exception {
+        try {
+            return pool.submit(task).get();
+        } catch (ExecutionException ex) {
+            throw new Exception(ex.getCause().getMessage(), ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package foodchain;
+
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.UnmarshalException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Sends calls to the nodes of the network with a bounded number of threads.
+ *
+ * Each node has a bounded queue of calls executed in order by one thread of
+ * the pool at a time. When the queue of a node is full the caller waits
+ * OFFER_TIMEOUT (backpressure) and then the call is dropped. Calls that wait
+ * more than CALL_TIMEOUT in the queue expire. A call runs in a thread of its
+ * own and the thread of the queue waits CALL_TIMEOUT for the answer - a node
+ * that can not be reached or does not answer in time is removed (the timeout
+ * is of each call, not of all the RMI calls of the JVM). Other errors of a
+ * call are counted as failures and the node is kept.
+ *
+ * A call without answer keeps its thread blocked in the socket until RMI
+ * gives up, so the threads of the calls are bounded by MAX_CALLS - the calls
+ * without a free thread are dropped.
+ */
+public class Broadcaster {
+
+    //threads of the pool
+    public static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    //max calls waiting for one node
+    public static final int QUEUE_CAPACITY = 1024;
+    //max time to wait for space in the queue of a node (ms)
+    public static final long OFFER_TIMEOUT = 100;
+    //max time of a call in the queue and of the answer of a node (ms)
+    public static final long CALL_TIMEOUT = 10_000;
+    //max calls executing (or blocked waiting for an answer)
+    public static final int MAX_CALLS = THREADS * 4;
+    //calls executed before the thread goes to other node
+    private static final int BATCH = 64;
+
+    /**
+     * call to a remote node
+     */
+    public interface PeerCall {
+
+        void call(RemoteNodeInterface node) throws Exception;
+    }
+
+    private final ThreadPoolExecutor pool;
+    //threads of the calls (a call without answer keeps its thread blocked
+    //in the socket until RMI gives up)
+    private final ThreadPoolExecutor calls;
+    private final Map<RemoteNodeInterface, PeerQueue> queues = new ConcurrentHashMap<>();
+    private final Consumer<RemoteNodeInterface> onFailure;
+    //metrics
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * constructor
+     *
+     * @param onFailure called when a node fails
+     */
+    public Broadcaster(Consumer<RemoteNodeInterface> onFailure) {
+        this(THREADS, onFailure);
+    }
+
+    /**
+     * constructor
+     *
+     * @param threads number of threads
+     * @param onFailure called when a node fails
+     */
+    public Broadcaster(int threads, Consumer<RemoteNodeInterface> onFailure) {
+        this.onFailure = onFailure;
+        AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "broadcast-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        calls = new ThreadPoolExecutor(0, Math.max(threads, MAX_CALLS), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, "broadcast-call-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * sends a call to a node
+     *
+     * @param node node
+     * @param call call
+     * @return false if the call was dropped (queue of the node is full)
+     */
+    public boolean send(RemoteNodeInterface node, PeerCall call) {
+        PeerQueue queue = queues.computeIfAbsent(node, PeerQueue::new);
+        try {
+            if (!queue.tasks.offer(new Task(call), OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+            return false;
+        }
+        queue.schedule();
+        return true;
+    }
+
+    /**
+     * sends a call to the nodes
+     *
+     * @param nodes nodes
+     * @param call call
+     */
+    public void broadcast(Collection<RemoteNodeInterface> nodes, PeerCall call) {
+        for (RemoteNodeInterface node : nodes) {
+            send(node, call);
+        }
+    }
+
+    /**
+     * removes the queue of a node - the calls waiting are dropped
+     *
+     * @param node node
+     */
+    public void remove(RemoteNodeInterface node) {
+        PeerQueue queue = queues.remove(node);
+        if (queue != null) {
+            dropped.addAndGet(queue.tasks.size());
+            queue.tasks.clear();
+        }
+    }
+
+    /**
+     * @return number of calls waiting in the queues
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (PeerQueue queue : queues.values()) {
+            depth += queue.tasks.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @param node node
+     * @return number of calls waiting for the node
+     */
+    public int getQueueDepth(RemoteNodeInterface node) {
+        PeerQueue queue = queues.get(node);
+        return queue == null ? 0 : queue.tasks.size();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        calls.shutdownNow();
+    }
+
+    /**
+     * failures of the transport or timeouts - the node can not be reached
+     *
+     * @param ex error of a call
+     * @return true if the node must be removed
+     */
+    static boolean isUnreachable(Exception ex) {
+        return ex instanceof ConnectException
+                || ex instanceof ConnectIOException
+                || ex instanceof UnmarshalException
+                || ex instanceof TimeoutException;
+    }
+
+    @Override
+    public String toString() {
+        return "Broadcaster queue=" + getQueueDepth() + " sent=" + sent + " failures=" + failures
+                + " dropped=" + dropped + " expired=" + expired;
+    }
+
+    /**
+     * call and the time limit to start
+     */
+    private static class Task {
+
+        final PeerCall call;
+        final long deadline;
+
+        Task(PeerCall call) {
+            this.call = call;
+            this.deadline = System.currentTimeMillis() + CALL_TIMEOUT;
+        }
+    }
+
+    /**
+     * calls of one node
+     */
+    private class PeerQueue implements Runnable {
+
+        final RemoteNodeInterface node;
+        final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        PeerQueue(RemoteNodeInterface node) {
+            this.node = node;
+        }
+
+        /**
+         * executes the queue in one thread of the pool (if not executing)
+         */
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < BATCH; i++) {
+                    Task task = tasks.poll();
+                    if (task == null) {
+                        break;
+                    }
+                    if (System.currentTimeMillis() > task.deadline) {
+                        expired.incrementAndGet();
+                        continue;
+                    }
+                    try {
+                        call(task);
+                        sent.incrementAndGet();
+                    } catch (RejectedExecutionException ex) {
+                        //all the threads of the calls are busy
+                        dropped.incrementAndGet();
+                    } catch (Exception ex) {
+                        failures.incrementAndGet();
+                        if (isUnreachable(ex)) {
+                            remove(node);
+                            onFailure.accept(node);
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            //calls added while executing
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * executes the call and waits CALL_TIMEOUT for the answer
+         *
+         * @param task call
+         * @throws RejectedExecutionException if there is no thread to the call
+         * @throws Exception if the call fails or the node does not answer
+         */
+        void call(Task task) throws Exception {
+            Future<Void> answer = calls.submit(() -> {
+                task.call.call(node);
+                return null;
+            });
+            try {
+                answer.get(CALL_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException ex) {
+                throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+            } finally {
+                answer.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package foodchain;
+
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headers-first synchronization of the blockchain with a node of the network.
+ *
+ * 1. the hashes of the blocks are compared from the end of the chain (windows
+ * that double in size) to find the last common block
+ *
+ * 2. the missing blocks are requested in batches by a pool of threads
+ *
+ * 3. the batches are validated in order before they change the blockchain -
+ * a branch that extends the blockchain is added batch by batch and the
+ * branch of a fork is kept in a staging store (not in the heap) until it
+ * replaces the local blocks
+ *
+ * The bytes transfered are proportional to the number of missing blocks.
+ *
+ * Fork choice: the blocks of the node are downloaded only if they have more
+ * work after the common blocks than the local blocks (with the same work, the
+ * local blocks - the branch seen first - are kept). The local blocks after
+ * the common blocks are replaced and their transactions that are not in the
+ * new blocks are orphaned.
+ */
+public class ChainSync {
+
+    //hashes in the first window of the search of the common block
+    public static final int HASH_WINDOW = 16;
+    //max hashes in one request
+    public static final int MAX_HASHES = 4096;
+    //max blocks in one request
+    public static final int BLOCK_BATCH = 50;
+    //threads downloading batches
+    public static final int SYNC_THREADS = 4;
+
+    private final BlockChain blockchain;
+    private final RemoteNodeInterface node;
+    //work of the branches after the common blocks
+    private BigInteger localWork = BigInteger.ZERO;
+    private BigInteger remoteWork = BigInteger.ZERO;
+    //branch chosen: > 0 node , < 0 local , 0 equal
+    private int choice;
+    //number of common blocks
+    private int common;
+    //number of blocks received
+    private int received;
+    //transactions of the local blocks removed
+    private List<Object> orphaned = new ArrayList<>();
+
+    /**
+     * constructor
+     *
+     * @param blockchain local blockchain
+     * @param node node with the blocks
+     */
+    public ChainSync(BlockChain blockchain, RemoteNodeInterface node) {
+        this.blockchain = blockchain;
+        this.node = node;
+    }
+
+    /**
+     * number of blocks of the local blockchain that are equal in the node
+     *
+     * @param remoteSize number of blocks of the node
+     * @return number of common blocks
+     * @throws RemoteException
+     */
+    public int findCommonBlocks(int remoteSize) throws RemoteException {
+        List<Block> blocks = blockchain.getBlocks();
+        int end = Math.min(blocks.size(), remoteSize);
+        int window = HASH_WINDOW;
+        while (end > 0) {
+            int from = Math.max(0, end - window);
+            List<byte[]> hashes = node.getBlockHashes(from, end - from);
+            //last block with the same hash
+            for (int id = from + hashes.size() - 1; id >= from; id--) {
+                if (Arrays.equals(hashes.get(id - from), blocks.get(id).getCurrentHash())) {
+                    return id + 1;
+                }
+            }
+            end = from;
+            window = Math.min(window * 2, MAX_HASHES);
+        }
+        return 0;
+    }
+
+    /**
+     * downloads the blocks of the node that are not in the local blockchain if
+     * the branch of the node has more work
+     *
+     * @return number of blocks received
+     * @throws Exception if the node fails or sends an invalid block
+     */
+    public int synchronize() throws Exception {
+        int remoteSize = node.getBlockchainSize();
+        common = findCommonBlocks(remoteSize);
+        //fork choice - compare only the blocks after the common blocks
+        localWork = blockchain.getWork(common);
+        remoteWork = node.getChainWork(common);
+        //same work - keeps the local blocks (first seen)
+        choice = remoteWork.compareTo(localWork);
+        if (choice <= 0) {
+            return 0;
+        }
+        //extends the local chain - the batches are added when validated
+        boolean extension = common == blockchain.getBlocks().size();
+        //fork - the batches are validated and kept in a staging store
+        //until the branch replaces the local blocks
+        try (BlockChain.Branch branch = extension ? null : blockchain.newBranch(common)) {
+            download(remoteSize, branch);
+            if (branch != null) {
+                orphaned = blockchain.setBlocks(branch);
+                received = branch.size();
+            }
+        }
+        return received;
+    }
+
+    /**
+     * downloads the blocks after the common blocks in parallel - each batch is
+     * validated before it is added to the blockchain (or to the branch)
+     *
+     * @param remoteSize number of blocks of the node
+     * @param branch branch of a fork or null if the blocks extend the
+     * blockchain
+     * @throws Exception if the node fails or sends an invalid block
+     */
+    private void download(int remoteSize, BlockChain.Branch branch) throws Exception {
+        ExecutorService exe = Executors.newFixedThreadPool(SYNC_THREADS);
+        try {
+            Deque<Future<List<Block>>> batches = new ArrayDeque<>();
+            int next = common;
+            while (next < remoteSize || !batches.isEmpty()) {
+                //keep the threads busy
+                while (next < remoteSize && batches.size() < SYNC_THREADS * 2) {
+                    final int from = next;
+                    batches.add(exe.submit(() -> node.getBlocks(from, BLOCK_BATCH)));
+                    next += BLOCK_BATCH;
+                }
+                List<Block> batch = batches.poll().get();
+                if (batch.isEmpty()) {
+                    //the node changed the blockchain
+                    break;
+                }
+                if (branch == null) {
+                    //content of the batch in parallel and links in order
+                    blockchain.addAll(batch);
+                    received += batch.size();
+                } else {
+                    branch.add(batch);
+                }
+            }
+        } finally {
+            exe.shutdownNow();
+        }
+    }
+
+    /**
+     * @return true if the local branch has more work than the branch of the
+     * node (or the same work and an older last block)
+     */
+    public boolean isLocalBetter() {
+        return choice < 0;
+    }
+
+    /**
+     * @return blocks received (read from the blockchain)
+     */
+    public List<Block> getReceived() {
+        List<Block> blocks = blockchain.getBlocks();
+        return blocks.subList(Math.min(common, blocks.size()), Math.min(common + received, blocks.size()));
+    }
+
+    public List<Object> getOrphaned() {
+        return orphaned;
+    }
+}
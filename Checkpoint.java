@@ -0,0 +1,157 @@
+package foodchain;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of the state of a node at a height of the blockchain: the tip of
+ * the chain, the length of the index of the block store, the index of the
+ * products, the state of the products and the pending transactions.
+ *
+ * The index file of the block store is the source of the positions of the
+ * blocks (fixed size entries), so the checkpoint doesn't grow with the number
+ * of blocks. At startup the node loads the last checkpoint and validates only
+ * the blocks added after it.
+ *
+ * BlockMigration saves the migration checkpoint (migration.chk) with the tip
+ * of the blocks converted from the old version - these blocks were validated
+ * with the rules of the old version and are trusted while the tip is in the
+ * block store.
+ */
+public class Checkpoint implements Serializable {
+
+    //name of the checkpoint file
+    public static final String FILE_NAME = "checkpoint.chk";
+    //name of the checkpoint of the migrated blocks
+    public static final String MIGRATION_FILE = "migration.chk";
+
+    private final int height; //number of blocks
+    private final byte[] tipHash; //hash of the last block
+    private final long indexLength; //length of the index of the block store
+    //pending transactions
+    private final List<String> mempool;
+    //transactions of each product
+    private final ProductIndex productIndex;
+    //state of the products
+    private final StateTree state;
+
+    /**
+     * constructor
+     *
+     * @param height number of blocks
+     * @param tipHash hash of the last block
+     * @param indexLength length of the index of the block store
+     * @param mempool pending transactions
+     * @param productIndex index of the products
+     * @param state state of the products
+     */
+    public Checkpoint(int height, byte[] tipHash, long indexLength, List<String> mempool,
+            ProductIndex productIndex, StateTree state) {
+        this.height = height;
+        this.tipHash = tipHash;
+        this.indexLength = indexLength;
+        this.mempool = new ArrayList<>(mempool);
+        this.productIndex = productIndex;
+        this.state = state;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] getTipHash() {
+        return tipHash;
+    }
+
+    public long getIndexLength() {
+        return indexLength;
+    }
+
+    public List<String> getMempool() {
+        return mempool;
+    }
+
+    public ProductIndex getProductIndex() {
+        return productIndex;
+    }
+
+    public StateTree getState() {
+        return state;
+    }
+
+    /**
+     * saves the checkpoint in path/checkpoint.chk - the file is replaced only
+     * when the new checkpoint is complete
+     *
+     * @param path path of the blockchain
+     * @throws IOException
+     */
+    public void save(String path) throws IOException {
+        save(path, FILE_NAME);
+    }
+
+    /**
+     * saves the checkpoint in path/fileName - the file is replaced only when
+     * the new checkpoint is complete
+     *
+     * @param path path of the blockchain
+     * @param fileName name of the checkpoint file
+     * @throws IOException
+     */
+    public void save(String path, String fileName) throws IOException {
+        File tmp = new File(path + fileName + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp))) {
+            out.writeObject(this);
+        }
+        Files.move(tmp.toPath(), new File(path + fileName).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * loads the checkpoint of path
+     *
+     * @param path path of the blockchain
+     * @return checkpoint or null if not exists
+     */
+    public static Checkpoint load(String path) {
+        return load(path, FILE_NAME);
+    }
+
+    /**
+     * loads the checkpoint in path/fileName
+     *
+     * @param path path of the blockchain
+     * @param fileName name of the checkpoint file
+     * @return checkpoint or null if not exists
+     */
+    public static Checkpoint load(String path, String fileName) {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new FileInputStream(path + fileName))) {
+            return (Checkpoint) in.readObject();
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * removes the checkpoint of path
+     *
+     * @param path path of the blockchain
+     */
+    public static void delete(String path) {
+        new File(path + FILE_NAME).delete();
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180021L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
@@ -0,0 +1,127 @@
+package foodchain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Block sent as the header and the short IDs of the transactions.
+ *
+ * The receiver gets the transactions from its mempool, downloads only the
+ * transactions that it doesn't have and rebuilds the block. The merkle root
+ * of the rebuilt block is verified against the header.
+ */
+public class CompactBlock implements Serializable {
+
+    //header of the block
+    private final int ID;
+    private final byte[] previousHash;
+    private final byte[] merkleRoot;
+    private final byte[] stateRoot;
+    private final long timestamp;
+    private final int dificulty;
+    private final int extraNonce;
+    private final long nonce;
+    private final byte[] currentHash;
+    //short IDs of the transactions (Mempool.shortIdOf)
+    private final long[] shortIds;
+
+    private CompactBlock(Block block, long[] shortIds) {
+        this.ID = block.getID();
+        this.previousHash = block.getPreviousHash();
+        this.merkleRoot = block.getMerkleRoot();
+        this.stateRoot = block.getStateRoot();
+        this.timestamp = block.getTimestamp();
+        this.dificulty = block.getDificulty();
+        this.extraNonce = block.getExtraNonce();
+        this.nonce = block.getNonce();
+        this.currentHash = block.getCurrentHash();
+        this.shortIds = shortIds;
+    }
+
+    /**
+     * compact block of a block
+     *
+     * @param block block
+     * @return compact block or null if the block has elements that are not
+     * transactions (strings)
+     */
+    public static CompactBlock of(Block block) {
+        List<?> transactions = block.getTransactions();
+        long[] ids = new long[transactions.size()];
+        for (int i = 0; i < ids.length; i++) {
+            if (!(transactions.get(i) instanceof String)) {
+                return null;
+            }
+            ids[i] = Mempool.shortIdOf(Mempool.hashOf((String) transactions.get(i)));
+        }
+        return new CompactBlock(block, ids);
+    }
+
+    public int getID() {
+        return ID;
+    }
+
+    public byte[] getCurrentHash() {
+        return currentHash;
+    }
+
+    public int size() {
+        return shortIds.length;
+    }
+
+    /**
+     * transactions of the block found in the mempool
+     *
+     * @param mempool pending transactions
+     * @return transactions of the block (null if not in the mempool)
+     */
+    public List<String> match(Mempool mempool) {
+        List<String> transactions = new ArrayList<>(shortIds.length);
+        for (long id : shortIds) {
+            transactions.add(mempool.getByShortId(id));
+        }
+        return transactions;
+    }
+
+    /**
+     * indexes of the transactions that are missing
+     *
+     * @param transactions transactions of the block (null if missing)
+     * @return indexes of the null transactions
+     */
+    public static List<Integer> missing(List<String> transactions) {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            if (transactions.get(i) == null) {
+                indexes.add(i);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * rebuilds the block
+     *
+     * @param transactions all the transactions of the block
+     * @return block or null if the transactions don't match the merkle root
+     */
+    public Block toBlock(List<String> transactions) {
+        MerkleTree<String> tree = new MerkleTree<>(transactions);
+        if (!Arrays.equals(tree.getRoot(), merkleRoot)) {
+            return null;
+        }
+        return new Block(ID, previousHash, merkleRoot, stateRoot, tree, timestamp,
+                dificulty, extraNonce, nonce, currentHash);
+    }
+
+    @Override
+    public String toString() {
+        return "Compact block " + ID + " [" + shortIds.length + " transactions]";
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180008L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
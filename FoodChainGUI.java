@@ -1003,25 +1003,12 @@ public class FoodChainGUI extends JFrame {
     
     private void refreshClientProductList() {
         try {
-            List<String> txtList = remoteObject.getRegisteredTransactions();
             java.util.List<FoodTransaction> storeProducts = new java.util.ArrayList<>();
-            java.util.Map<String, List<FoodTransaction>> productHistory = new java.util.HashMap<>();
             
-            // Recolher transações e agrupar por produto
-            for (String txt : txtList) {
-                try {
-                    Object obj = Utils.base64ToObject(txt);
-                    if (obj instanceof FoodTransaction) {
-                        FoodTransaction tx = (FoodTransaction) obj;
-                        String productId = tx.getProduct().getProductId();
-                        productHistory.computeIfAbsent(productId, k -> new ArrayList<>()).add(tx);
-                        
-                        // Apenas adicionar se tiver transação de loja ("À Venda")
-                        if ("À Venda".equals(tx.getProduct().getStatus())) {
-                            storeProducts.add(tx);
-                        }
-                    }
-                } catch (Exception e) {
+            // Produtos cuja última transação é de loja ("À Venda")
+            for (FoodTransaction tx : decodeTransactions(remoteObject.getLatestProductTransactions())) {
+                if ("À Venda".equals(tx.getProduct().getStatus())) {
+                    storeProducts.add(tx);
                 }
             }
             
@@ -1080,7 +1067,7 @@ public class FoodChainGUI extends JFrame {
                         productBtn.setPreferredSize(new Dimension(200, 150));
                         
                         String productId = product.getProductId();
-                        productBtn.addActionListener(e -> showProductTraceForClient(productId, productHistory));
+                        productBtn.addActionListener(e -> showProductTraceForClient(productId));
                         
                         gbc.gridy = idx;
                         listPanel.add(productBtn, gbc);
@@ -1103,9 +1090,11 @@ public class FoodChainGUI extends JFrame {
         }
     }
     
-    private void showProductTraceForClient(String productId, java.util.Map<String, List<FoodTransaction>> productHistory) {
+    private void showProductTraceForClient(String productId) {
         try {
-            List<FoodTransaction> history = productHistory.get(productId);
+            // Apenas as transações deste produto (índice do nó) com a prova de cada bloco
+            ProductTrace productTrace = remoteObject.getProductTrace(productId);
+            List<FoodTransaction> history = decodeTransactions(productTrace.getTransactions());
             if (history == null || history.isEmpty()) {
                 JOptionPane.showMessageDialog(this,
                     "Histórico não encontrado.",
@@ -1127,6 +1116,11 @@ public class FoodChainGUI extends JFrame {
             trace.append("Produto: ").append(product.getCategory()).append("\n");
             trace.append("Quantidade: ").append(product.getQuantity()).append(" ").append(product.getUnit()).append("\n");
             trace.append("Origem: ").append(product.getOrigin()).append("\n");
+            // As raízes de Merkle vêm do mesmo nó - as provas não verificam o histórico
+            if (!productTrace.isValid()) {
+                trace.append("⚠ Provas de Merkle inválidas\n");
+            }
+            trace.append("Histórico do nó em ").append(productTrace.getBlocks().size()).append(" bloco(s) - não verificado\n");
             trace.append("\n───────────────────────────────────────────────────────────\n");
             trace.append("📍 CAMINHO DO PRODUTO\n");
             trace.append("───────────────────────────────────────────────────────────\n\n");
@@ -1218,25 +1212,33 @@ public class FoodChainGUI extends JFrame {
     private FoodProduct findProductById(String productId) {
         FoodProduct latest = null;
         try {
-            List<String> txtList = remoteObject.getRegisteredTransactions();
-            for (String txt : txtList) {
-                try {
-                    Object obj = Utils.base64ToObject(txt);
-                    if (obj instanceof FoodTransaction) {
-                        FoodTransaction tx = (FoodTransaction) obj;
-                        if (tx.getProduct().getProductId().equals(productId)) {
-                            // Manter a última ocorrência (transação mais recente) deste productId
-                            latest = tx.getProduct();
-                        }
-                    }
-                } catch (Exception e) {
-                }
+            // Estado atual do produto (última transação deste productId)
+            ProductState state = remoteObject.getProductState(productId);
+            if (state != null) {
+                latest = state.getProduct();
             }
         } catch (Exception ex) {
         }
         return latest;
     }
     
+    /**
+     * Converte as transações (Base64) recebidas do nó em FoodTransaction
+     */
+    private List<FoodTransaction> decodeTransactions(List txtList) {
+        List<FoodTransaction> transactions = new ArrayList<>();
+        for (Object txt : txtList) {
+            try {
+                Object obj = txt instanceof String ? Utils.base64ToObject((String) txt) : txt;
+                if (obj instanceof FoodTransaction) {
+                    transactions.add((FoodTransaction) obj);
+                }
+            } catch (Exception e) {
+            }
+        }
+        return transactions;
+    }
+    
     private void showProductSelectorForWarehouse() {
         selectProductAndFill(txtWarehouseProductId, txtWarehouseZone, txtWarehouseTemp, "Armazém");
     }
@@ -1252,22 +1254,8 @@ public class FoodChainGUI extends JFrame {
     private void selectProductAndFill(JTextField productIdField, JTextField locationField, 
                                       JTextField tempField, String stationType) {
         try {
-            List<String> txtList = remoteObject.getRegisteredTransactions();
-            java.util.Map<String, FoodTransaction> latestTransactions = new java.util.LinkedHashMap<>();
-            
-            // Agrupar por productId e manter apenas a ÚLTIMA transação de cada produto
-            for (String txt : txtList) {
-                try {
-                    Object obj = Utils.base64ToObject(txt);
-                    if (obj instanceof FoodTransaction) {
-                        FoodTransaction tx = (FoodTransaction) obj;
-                        String productId = tx.getProduct().getProductId();
-                        // Guardar a última transação de cada produto (última no loop = mais recente)
-                        latestTransactions.put(productId, tx);
-                    }
-                } catch (Exception e) {
-                }
-            }
+            // Última transação de cada produto (índice do nó)
+            List<FoodTransaction> latestTransactions = decodeTransactions(remoteObject.getLatestProductTransactions());
             
             if (latestTransactions.isEmpty()) {
                 JOptionPane.showMessageDialog(this, 
@@ -1276,7 +1264,7 @@ public class FoodChainGUI extends JFrame {
                 return;
             }
             
-            java.util.List<FoodTransaction> products = new java.util.ArrayList<>(latestTransactions.values());
+            java.util.List<FoodTransaction> products = latestTransactions;
             
             // Criar lista de produtos para seleção (mostrar o Product ID para confirmar que não muda)
             String[] options = new String[products.size()];
@@ -1335,24 +1323,23 @@ public class FoodChainGUI extends JFrame {
     
     private void refreshProductList() {
         try {
-            List<String> txtList = remoteObject.getRegisteredTransactions();
             StringBuilder sb = new StringBuilder();
             sb.append("=".repeat(80)).append("\n");
             sb.append("PRODUTOS NA BLOCKCHAIN\n");
             sb.append("=".repeat(80)).append("\n\n");
             
+            // Transações lidas página a página (já descodificadas pelo nó)
             int count = 0;
-            for (String txt : txtList) {
-                try {
-                    Object obj = Utils.base64ToObject(txt);
-                    if (obj instanceof FoodTransaction) {
-                        FoodTransaction tx = (FoodTransaction) obj;
-                        count++;
-                        sb.append(count).append(". ").append(tx.toString()).append("\n");
-                        sb.append("-".repeat(80)).append("\n");
-                    }
-                } catch (Exception e) {
+            TransactionQuery query = new TransactionQuery();
+            long cursor = TransactionPage.START;
+            while (cursor != TransactionPage.END) {
+                TransactionPage page = remoteObject.queryTransactions(query, cursor, 200);
+                for (FoodTransaction tx : page.getTransactions()) {
+                    count++;
+                    sb.append(count).append(". ").append(tx.toString()).append("\n");
+                    sb.append("-".repeat(80)).append("\n");
                 }
+                cursor = page.getNextCursor();
             }
             
             if (count == 0) {
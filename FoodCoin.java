@@ -37,19 +37,34 @@ public class FoodCoin extends javax.swing.JFrame {
     }
 
     public List<FoodTransaction> getTransactions() {
+        return getTransactions(new TransactionQuery());
+    }
+
+    /**
+     * transactions of one product
+     *
+     * @param productId id of the product
+     * @return transactions of the product in the order of the blockchain
+     */
+    public List<FoodTransaction> getTransactions(String productId) {
+        return getTransactions(new TransactionQuery().setProductId(productId));
+    }
+
+    /**
+     * transactions that match the query - the node filters the transactions
+     * and sends them page by page
+     *
+     * @param query filter of the transactions
+     * @return transactions in the order of the blockchain
+     */
+    public List<FoodTransaction> getTransactions(TransactionQuery query) {
         List<FoodTransaction> transactions = new ArrayList<>();
         try {
-            List<String> txtList = remoteObject.getRegisteredTransactions();
-            for (String txt : txtList) {
-                try {
-                    Object obj = utils.Utils.base64ToObject(txt);
-                    // Suporta FoodTransaction
-                    if (obj instanceof FoodTransaction) {
-                        transactions.add((FoodTransaction) obj);
-                    }
-                } catch (Exception e) {
-                    // Ignora transações que não consegue ler
-                }
+            long cursor = TransactionPage.START;
+            while (cursor != TransactionPage.END) {
+                TransactionPage page = remoteObject.queryTransactions(query, cursor, PAGE_SIZE);
+                transactions.addAll(page.getTransactions());
+                cursor = page.getNextCursor();
             }
         } catch (RemoteException ex) {
             System.getLogger(FoodCoin.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
@@ -57,6 +72,9 @@ public class FoodCoin extends javax.swing.JFrame {
         return transactions;
     }
 
+    //transactions per request to the node
+    private static final int PAGE_SIZE = 200;
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -1,5 +1,6 @@
 package foodchain;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.security.PublicKey;
 import utils.SecurityUtils;
@@ -41,9 +42,7 @@ public class FoodTransaction implements Serializable {
         this.product = product;
         this.timestamp = System.currentTimeMillis();
 
-        byte[] allData = Utils.concatenate(sender.getEncoded(), new byte[]{0x01});
-        allData = Utils.concatenate(allData, Utils.toBytes(product));
-        allData = Utils.concatenate(allData, Utils.longToBytes(timestamp));
+        byte[] allData = getSignedData(sender, null, product, timestamp);
         this.signature = SecurityUtils.sign(allData, uProducer.getPrivateKey());
     }
     
@@ -62,12 +61,67 @@ public class FoodTransaction implements Serializable {
         this.product = product;
         this.timestamp = System.currentTimeMillis();
 
-        byte[] allData = Utils.concatenate(sender.getEncoded(), receiver.getEncoded());
-        allData = Utils.concatenate(allData, Utils.toBytes(product));
-        allData = Utils.concatenate(allData, Utils.longToBytes(timestamp));
+        byte[] allData = getSignedData(sender, receiver, product, timestamp);
         this.signature = SecurityUtils.sign(allData, uSender.getPrivateKey());
     }
 
+    /**
+     * Construtor com todos os campos (usado para descodificar transações)
+     */
+    FoodTransaction(TransactionType type, String txtSender, String txtReceiver, PublicKey sender,
+            PublicKey receiver, FoodProduct product, long timestamp, byte[] signature) {
+        this.type = type;
+        this.txtSender = txtSender;
+        this.txtReceiver = txtReceiver;
+        this.sender = sender;
+        this.receiver = receiver;
+        this.product = product;
+        this.timestamp = timestamp;
+        this.signature = signature;
+    }
+
+    /**
+     * Dados assinados pelo emissor (na criação o recetor é 0x01)
+     *
+     * O produto é escrito no formato canónico do BinaryCodec - os bytes da
+     * serialização Java dependem da partilha de strings e mudam depois de
+     * transmitir a transação
+     */
+    private static byte[] getSignedData(PublicKey sender, PublicKey receiver, FoodProduct product, long timestamp) throws Exception {
+        return getSignedData(sender, receiver, BinaryCodec.encodeProduct(product), timestamp);
+    }
+
+    private static byte[] getSignedData(PublicKey sender, PublicKey receiver, byte[] product, long timestamp) {
+        byte[] allData = Utils.concatenate(sender.getEncoded(),
+                receiver == null ? new byte[]{0x01} : receiver.getEncoded());
+        allData = Utils.concatenate(allData, product);
+        return Utils.concatenate(allData, Utils.longToBytes(timestamp));
+    }
+
+    /**
+     * Verifica a estrutura e a assinatura da transação
+     *
+     * @return true se a transação é válida
+     */
+    public boolean isValid() {
+        try {
+            if (type == null || sender == null || product == null || signature == null) {
+                return false;
+            }
+            //criação sem recetor - transferência com recetor
+            if (isCreateTransaction() != (receiver == null)) {
+                return false;
+            }
+            if (SecurityUtils.verifySign(getSignedData(sender, receiver, product, timestamp), signature, sender)) {
+                return true;
+            }
+            //transações assinadas com a serialização Java do produto
+            return SecurityUtils.verifySign(getSignedData(sender, receiver, Utils.toBytes(product), timestamp), signature, sender);
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
     public TransactionType getType() {
         return type;
     }
@@ -134,6 +188,13 @@ public String toString() {
     return txt.toString();
 }
 
+    /**
+     * A transação é serializada no formato do BinaryCodec
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return BinaryCodec.SerialProxy.of(this);
+    }
+
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
     private static final long serialVersionUID = 202601050002L;
     //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
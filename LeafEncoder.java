@@ -0,0 +1,36 @@
+package foodchain;
+
+import java.io.Serializable;
+
+/**
+ * Bytes of an element hashed in the leaves of the merkle tree.
+ *
+ * The encoding must be the same in all the nodes of the network - the same
+ * elements give the same merkle root.
+ */
+@FunctionalInterface
+public interface LeafEncoder extends Serializable {
+
+    /**
+     * canonical encoding of BinaryCodec - FoodTransaction and String have a
+     * compact encoding independent of the JVM. The elements of the blocks are
+     * the Base64 strings of the transactions, so the leaves of the blocks are
+     * the UTF-8 bytes of the strings (the FoodTransaction encoding is used
+     * only by trees of decoded transactions)
+     */
+    LeafEncoder CANONICAL = BinaryCodec::encodeLeaf;
+
+    /**
+     * java serialization of the element (blocks created before the canonical
+     * encoding)
+     */
+    LeafEncoder JAVA_SERIALIZATION = MerkleTree::objectToBytes;
+
+    /**
+     * bytes of the element
+     *
+     * @param element element of the tree
+     * @return bytes hashed in the leaf
+     */
+    byte[] encode(Object element);
+}
@@ -0,0 +1,225 @@
+package foodchain;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import utils.Utils;
+
+/**
+ * Pending transactions of a node indexed by the hash of the transaction.
+ *
+ * Insert, lookup and removal are O(1). The transactions are kept in the order
+ * of arrival and, when the pool exceeds the max number of transactions or the
+ * max bytes, the oldest transactions are evicted.
+ *
+ * The transactions are also indexed by a short ID (first 8 bytes of the hash)
+ * used to rebuild compact blocks.
+ */
+public class Mempool {
+
+    //default max number of transactions
+    public static final int DEFAULT_MAX_SIZE = 50_000;
+    //default max bytes of the transactions
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    //hash -> transaction (order of arrival)
+    private final LinkedHashMap<String, String> pool = new LinkedHashMap<>();
+    //short ID -> hash
+    private final Map<Long, String> shortIds = new HashMap<>();
+    private final int maxSize;
+    private final long maxBytes;
+    private long bytes;
+    private long evicted;
+
+    public Mempool() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * constructor
+     *
+     * @param maxSize max number of transactions
+     * @param maxBytes max bytes of the transactions
+     */
+    public Mempool(int maxSize, long maxBytes) {
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * hash of a transaction
+     *
+     * @param tx transaction (base64)
+     * @return base64 of the hash
+     */
+    public static String hashOf(String tx) {
+        return Utils.toString(MerkleTree.getHashValue(tx.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * short ID of a transaction
+     *
+     * @param hash hash of the transaction (hashOf)
+     * @return first 8 bytes of the hash
+     */
+    public static long shortIdOf(String hash) {
+        return ByteBuffer.wrap(Base64.getDecoder().decode(hash)).getLong();
+    }
+
+    /**
+     * adds a transaction - the oldest transactions are evicted if the pool is
+     * full
+     *
+     * @param tx transaction
+     * @return true if the transaction is new
+     */
+    public synchronized boolean add(String tx) {
+        if (tx.length() > maxBytes) {
+            return false;
+        }
+        String hash = hashOf(tx);
+        if (pool.containsKey(hash)) {
+            return false;
+        }
+        pool.put(hash, tx);
+        shortIds.put(shortIdOf(hash), hash);
+        bytes += tx.length();
+        //eviction of the oldest transactions
+        Iterator<Map.Entry<String, String>> it = pool.entrySet().iterator();
+        while (pool.size() > maxSize || bytes > maxBytes) {
+            Map.Entry<String, String> oldest = it.next();
+            bytes -= oldest.getValue().length();
+            shortIds.remove(shortIdOf(oldest.getKey()), oldest.getKey());
+            it.remove();
+            evicted++;
+        }
+        return true;
+    }
+
+    /**
+     * adds the transactions
+     *
+     * @param txs transactions
+     */
+    public synchronized void addAll(Collection<String> txs) {
+        for (String tx : txs) {
+            add(tx);
+        }
+    }
+
+    public synchronized boolean contains(String tx) {
+        return pool.containsKey(hashOf(tx));
+    }
+
+    public synchronized boolean containsHash(String hash) {
+        return pool.containsKey(hash);
+    }
+
+    /**
+     * transaction with the hash
+     *
+     * @param hash hash of the transaction
+     * @return transaction or null if not exists
+     */
+    public synchronized String get(String hash) {
+        return pool.get(hash);
+    }
+
+    /**
+     * transaction with the short ID
+     *
+     * @param shortId short ID of the transaction (shortIdOf)
+     * @return transaction or null if not exists
+     */
+    public synchronized String getByShortId(long shortId) {
+        String hash = shortIds.get(shortId);
+        return hash == null ? null : pool.get(hash);
+    }
+
+    public synchronized boolean remove(String tx) {
+        return removeHash(hashOf(tx));
+    }
+
+    public synchronized boolean removeHash(String hash) {
+        String tx = pool.remove(hash);
+        if (tx == null) {
+            return false;
+        }
+        shortIds.remove(shortIdOf(hash), hash);
+        bytes -= tx.length();
+        return true;
+    }
+
+    /**
+     * removes the transactions (ex: transactions of a block)
+     *
+     * @param txs transactions - elements that are not strings are ignored
+     */
+    public synchronized void removeAll(Collection<?> txs) {
+        for (Object tx : txs) {
+            if (tx instanceof String) {
+                remove((String) tx);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return pool.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return pool.isEmpty();
+    }
+
+    /**
+     * @return bytes of the transactions
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of transactions evicted because the pool was full
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * copy of the transactions
+     *
+     * @return transactions in the order of arrival
+     */
+    public synchronized List<String> snapshot() {
+        return new ArrayList<>(pool.values());
+    }
+
+    /**
+     * copy of the oldest transactions (ex: template of a new block)
+     *
+     * @param max max number of transactions
+     * @return transactions in the order of arrival
+     */
+    public synchronized List<String> snapshot(int max) {
+        List<String> list = new ArrayList<>(Math.min(max, pool.size()));
+        for (String tx : pool.values()) {
+            if (list.size() == max) {
+                break;
+            }
+            list.add(tx);
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Mempool " + pool.size() + " transactions " + bytes + " bytes";
+    }
+}
@@ -0,0 +1,118 @@
+package foodchain;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Proof of several leaves of a merkle tree.
+ *
+ * The proof has the indexes of the leaves (ascending), the number of leaves
+ * and the nodes needed to calculate the root that are not calculated from the
+ * leaves. The nodes are ordered by level (leaves first) and by index. Two
+ * leaves with the same parent don't need any node of the proof and the paths
+ * of the leaves are calculated once when they meet.
+ */
+public class MerkleMultiProof implements Serializable {
+
+    private final int leafCount;
+    //indexes of the leaves (ascending)
+    private final int[] indexes;
+    //nodes of the proof by level and index
+    private final List<byte[]> hashes;
+
+    /**
+     * constructor
+     *
+     * @param leafCount number of leaves of the tree
+     * @param indexes indexes of the leaves (ascending)
+     * @param hashes nodes of the proof by level and index
+     */
+    public MerkleMultiProof(int leafCount, int[] indexes, List<byte[]> hashes) {
+        this.leafCount = leafCount;
+        this.indexes = indexes;
+        this.hashes = hashes;
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    public int[] getIndexes() {
+        return indexes;
+    }
+
+    public List<byte[]> getHashes() {
+        return hashes;
+    }
+
+    /**
+     * root of the tree calculated from the leaves
+     *
+     * @param leafHashes hashes of the leaves (order of the indexes)
+     * @return root or null if the proof is malformed
+     */
+    public byte[] getRoot(List<byte[]> leafHashes) {
+        if (indexes.length == 0 || leafHashes.size() != indexes.length) {
+            return null;
+        }
+        for (int k = 0; k < indexes.length; k++) {
+            if (indexes[k] < 0 || indexes[k] >= leafCount || (k > 0 && indexes[k] <= indexes[k - 1])) {
+                return null;
+            }
+        }
+        int[] nodes = indexes.clone();
+        byte[][] values = leafHashes.toArray(new byte[0][]);
+        int count = nodes.length;
+        int next = 0;
+        for (int size = leafCount; size > 1; size = (size + 1) / 2) {
+            int parents = 0;
+            for (int k = 0; k < count; k++) {
+                int index = nodes[k];
+                byte[] parent;
+                if (k + 1 < count && nodes[k + 1] == (index ^ 1)) {
+                    //the sibling is calculated from other leaf
+                    parent = MerkleTree.hashNodes(values[k], values[k + 1]);
+                    k++;
+                } else if ((index ^ 1) < size) {
+                    //the sibling is in the proof
+                    if (next == hashes.size()) {
+                        return null;
+                    }
+                    byte[] sibling = hashes.get(next++);
+                    parent = index % 2 == 0
+                            ? MerkleTree.hashNodes(values[k], sibling)
+                            : MerkleTree.hashNodes(sibling, values[k]);
+                } else {
+                    //last node of the level
+                    parent = MerkleTree.hashNodes(values[k], null);
+                }
+                nodes[parents] = index / 2;
+                values[parents] = parent;
+                parents++;
+            }
+            count = parents;
+        }
+        return next == hashes.size() ? values[0] : null;
+    }
+
+    /**
+     * verify the proof
+     *
+     * @param leafHashes hashes of the leaves (order of the indexes)
+     * @param root root of the tree
+     * @return true if all the leaves are in the tree with the root
+     */
+    public boolean verify(List<byte[]> leafHashes, byte[] root) {
+        return Arrays.equals(getRoot(leafHashes), root);
+    }
+
+    @Override
+    public String toString() {
+        return "Proof of " + indexes.length + " leaves of " + leafCount + " [" + hashes.size() + " hashes]";
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180010L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
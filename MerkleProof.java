@@ -0,0 +1,156 @@
+package foodchain;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Proof of one leaf of a merkle tree.
+ *
+ * The proof has the index of the leaf, the number of leaves and one sibling
+ * per level. The last node of a level with an odd number of nodes has no
+ * sibling (the parent is the hash of the node) and the verifier knows it from
+ * the index and the number of leaves. The root is calculated with one hash per
+ * level.
+ */
+public class MerkleProof implements Serializable {
+
+    private final int leafIndex;
+    private final int leafCount;
+    //siblings from the leaves to the root
+    private final List<byte[]> siblings;
+
+    /**
+     * constructor
+     *
+     * @param leafIndex index of the leaf
+     * @param leafCount number of leaves of the tree
+     * @param siblings siblings from the leaves to the root
+     */
+    public MerkleProof(int leafIndex, int leafCount, List<byte[]> siblings) {
+        this.leafIndex = leafIndex;
+        this.leafCount = leafCount;
+        this.siblings = siblings;
+    }
+
+    public int getLeafIndex() {
+        return leafIndex;
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    public List<byte[]> getSiblings() {
+        return siblings;
+    }
+
+    /**
+     * root of the tree calculated from the leaf
+     *
+     * @param leafHash hash of the leaf
+     * @return root or null if the proof is malformed
+     */
+    public byte[] getRoot(byte[] leafHash) {
+        return climb(leafHash, null);
+    }
+
+    /**
+     * verify the proof
+     *
+     * @param leafHash hash of the leaf
+     * @param root root of the tree
+     * @return true if the leaf is in the tree with the root
+     */
+    public boolean verify(byte[] leafHash, byte[] root) {
+        return Arrays.equals(getRoot(leafHash), root);
+    }
+
+    /**
+     * verify the proofs of the same tree - the nodes calculated by one proof
+     * are shared with the others and a proof stops when it reaches a node
+     * already verified
+     *
+     * @param leafHashes hashes of the leaves
+     * @param proofs proofs of the leaves
+     * @param root root of the tree
+     * @return true if all the leaves are in the tree with the root
+     */
+    public static boolean verifyAll(List<byte[]> leafHashes, List<MerkleProof> proofs, byte[] root) {
+        if (leafHashes.size() != proofs.size()) {
+            return false;
+        }
+        //(level, index) -> hash of the nodes verified
+        Map<Long, byte[]> verified = new HashMap<>();
+        for (int i = 0; i < proofs.size(); i++) {
+            MerkleProof proof = proofs.get(i);
+            if (i > 0 && proof.leafCount != proofs.get(0).leafCount) {
+                return false;
+            }
+            byte[] top = proof.climb(leafHashes.get(i), verified);
+            //the proof reached the root or a node already verified
+            if (top == null || (top != VERIFIED && !Arrays.equals(top, root))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //result of climb when the path reaches a node already verified
+    private static final byte[] VERIFIED = new byte[0];
+
+    /**
+     * calculates the nodes from the leaf to the root
+     *
+     * @param hash hash of the leaf
+     * @param verified nodes verified by other proofs (or null)
+     * @return root, VERIFIED if the path reached a node verified or null if
+     * the proof is malformed or a node is different of a node verified
+     */
+    private byte[] climb(byte[] hash, Map<Long, byte[]> verified) {
+        if (leafIndex < 0 || leafIndex >= leafCount) {
+            return null;
+        }
+        int index = leafIndex;
+        int size = leafCount;
+        int sibling = 0;
+        for (int level = 0; size > 1; level++) {
+            if (verified != null) {
+                byte[] known = verified.putIfAbsent(((long) level << 32) | index, hash);
+                if (known != null) {
+                    return Arrays.equals(known, hash) ? VERIFIED : null;
+                }
+            }
+            if (index % 2 == 1) {
+                //left sibling
+                if (sibling == siblings.size()) {
+                    return null;
+                }
+                hash = MerkleTree.hashNodes(siblings.get(sibling++), hash);
+            } else if (index + 1 < size) {
+                //right sibling
+                if (sibling == siblings.size()) {
+                    return null;
+                }
+                hash = MerkleTree.hashNodes(hash, siblings.get(sibling++));
+            } else {
+                //last node of the level
+                hash = MerkleTree.hashNodes(hash, null);
+            }
+            index /= 2;
+            size = (size + 1) / 2;
+        }
+        return sibling == siblings.size() ? hash : null;
+    }
+
+    @Override
+    public String toString() {
+        return "Proof of leaf " + leafIndex + "/" + leafCount + " [" + siblings.size() + " hashes]";
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180009L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
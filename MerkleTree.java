@@ -26,11 +26,17 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import utils.SecurityUtils;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * Created on 13/09/2022, 11:42:56
@@ -41,11 +47,21 @@ import utils.SecurityUtils;
  */
 public final class MerkleTree<T> implements Serializable {
     public final static String HASH_ALGORITHM= "SHA3-256";
-
-    // merkle tree hashs
-    List<List<byte[]>> hashTree;
+    //levels with more nodes are hashed in parallel
+    public static final int PARALLEL_THRESHOLD = 1024;
+
+    // hashs of the nodes of all levels in one array (leaves first)
+    byte[] nodes;
+    // index of the first node of each level (leaves = 0) and number of nodes
+    int[] offsets;
+    // size of the hashs
+    int hashSize;
     // elements of tree
     List<T> elements;
+    // bytes of the elements hashed in the leaves
+    LeafEncoder encoder;
+    // hash of the leaves -> index (built on the first lookup)
+    private transient Map<String, Integer> leafIndexes;
 
     /**
      * Builds a merkle tree with an array of data
@@ -63,26 +79,43 @@ public final class MerkleTree<T> implements Serializable {
      * @param listOfData list of data
      */
     public MerkleTree(List<T> listOfData) {
-        this(); //build lists
+        this(listOfData, LeafEncoder.CANONICAL);
+    }
+
+    /**
+     * Builds a merkle tree with an list of data
+     *
+     * @param listOfData list of data
+     * @param encoder bytes of the elements hashed in the leaves
+     */
+    public MerkleTree(List<T> listOfData, LeafEncoder encoder) {
+        this(encoder); //build lists
         //save data
         elements.addAll(listOfData);
-        //calculate list of hash of elements
-        List<byte[]> hashT = new ArrayList<>();
-        for (T elem : listOfData) {
-            //convert T to byte arrays
-            //hash byte array
-            hashT.add(getHashValue(objectToBytes(elem)));
-        }
+        //calculate the hash of elements (in parallel in large trees)
+        byte[][] hashT = new byte[elements.size()][];
+        range(hashT.length).forEach(i -> hashT[i] = getHashValue(encoder.encode(elements.get(i))));
         //build merkle tree
-        makeTree(hashT);
+        makeTree(Arrays.asList(hashT));
     }
 
     /**
      * Builds an empty merkle tree
      */
     public MerkleTree() {
+        this(LeafEncoder.CANONICAL);
+    }
+
+    /**
+     * Builds an empty merkle tree
+     *
+     * @param encoder bytes of the elements hashed in the leaves
+     */
+    public MerkleTree(LeafEncoder encoder) {
+        this.encoder = encoder;
         //build lists
-        hashTree = new ArrayList<>();
+        nodes = new byte[0];
+        offsets = new int[]{0};
         elements = new ArrayList<>();
     }
 
@@ -92,17 +125,20 @@ public final class MerkleTree<T> implements Serializable {
      * @return root of tree
      */
     public byte[] getRoot() {
-        //top o list
-        return hashTree.get(0).get(0);
+        if (getLeafCount() == 0) {
+            throw new IndexOutOfBoundsException("Empty merkle tree");
+        }
+        //top level
+        return getNode(offsets.length - 2, 0);
     }
 
     /**
      * gets the merkle tree
      *
-     * @return tree
+     * @return copy of the levels of the tree (root first)
      */
     public List<List<byte[]>> getMerkleTree() {
-        return hashTree;
+        return getHashTree();
     }
 
     /**
@@ -114,8 +150,30 @@ public final class MerkleTree<T> implements Serializable {
         return elements;
     }
 
+    /**
+     * copy of the levels of the tree
+     *
+     * @return levels of hashs (root first)
+     */
     public List<List<byte[]>> getHashTree() {
-        return hashTree;
+        List<List<byte[]>> levels = new ArrayList<>();
+        for (int level = offsets.length - 2; level >= 0; level--) {
+            levels.add(getLevel(level));
+        }
+        return levels;
+    }
+
+    /**
+     * hashs of the elements
+     *
+     * @return copy of the leaves of the tree
+     */
+    public List<byte[]> getLeaves() {
+        return offsets.length < 2 ? new ArrayList<>() : getLevel(0);
+    }
+
+    public int getLeafCount() {
+        return offsets.length < 2 ? 0 : offsets[1];
     }
 
     /**
@@ -124,176 +182,321 @@ public final class MerkleTree<T> implements Serializable {
      * @param hashList list of hashs
      */
     public void makeTree(List<byte[]> hashList) {
-        //add hashlist to the beginning of tree
-        hashTree.add(0, hashList);
-        //top of tree -> terminate
-        if (hashList.size() <= 1) {
-            return;
+        int size = hashList.size();
+        leafIndexes = null;
+        hashSize = size == 0 ? 0 : hashList.get(0).length;
+        offsets = levelOffsets(size);
+        nodes = new byte[offsets[offsets.length - 1] * hashSize];
+        //leaves in the beginning of the array
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(hashList.get(i), 0, nodes, i * hashSize, hashSize);
         }
-        //new level
-        List<byte[]> newLevel = new ArrayList<>();
-        //iterate list 2 by 2
-        for (int i = 0; i < hashList.size(); i += 2) {
-            //first element
-            byte[] data = hashList.get(i);
-            //if have another element
-            if (i + 1 < hashList.size()) {
-                //concatenate element    
-                data = concatenate(data, hashList.get(i + 1));
-            }
-            //calculate hash od the elements
-            byte[] hash = getHashValue(data);
-            //add hash to the new leval
-            newLevel.add(hash);
+        //upper levels - each level is calculated from the level below
+        for (int level = 1; level < offsets.length - 1; level++) {
+            int childs = levelSize(level - 1);
+            int first = offsets[level - 1];
+            int top = offsets[level];
+            range(levelSize(level)).forEach(i -> {
+                //hash of the left and right nodes (or only the left node)
+                int length = 2 * i + 1 < childs ? 2 * hashSize : hashSize;
+                hashNodes((first + 2 * i) * hashSize, length, nodes, (top + i) * hashSize);
+            });
         }
-        //call the makeTree with new level
-        makeTree(newLevel);
+    }
+
+    /**
+     * index of the first node of each level
+     *
+     * @param leaves number of leaves
+     * @return offsets of the levels (leaves first) and the number of nodes
+     */
+    private static int[] levelOffsets(int leaves) {
+        int depth = 1;
+        for (int size = leaves; size > 1; size = (size + 1) / 2) {
+            depth++;
+        }
+        int[] levels = new int[depth + 1];
+        int size = leaves;
+        for (int level = 0; level < depth; level++) {
+            levels[level + 1] = levels[level] + size;
+            size = (size + 1) / 2;
+        }
+        return levels;
+    }
+
+    private int levelSize(int level) {
+        return offsets[level + 1] - offsets[level];
+    }
+
+    /**
+     * hash of a node
+     *
+     * @param level level (leaves = 0)
+     * @param index index in the level
+     * @return copy of the hash
+     */
+    private byte[] getNode(int level, int index) {
+        int start = (offsets[level] + index) * hashSize;
+        return Arrays.copyOfRange(nodes, start, start + hashSize);
+    }
+
+    private List<byte[]> getLevel(int level) {
+        List<byte[]> list = new ArrayList<>(levelSize(level));
+        for (int i = 0; i < levelSize(level); i++) {
+            list.add(getNode(level, i));
+        }
+        return list;
+    }
+
+    /**
+     * hashs the consecutive nodes without copies
+     *
+     * @param from first byte of the nodes
+     * @param length number of bytes
+     * @param dest array of the hash
+     * @param position position of the hash in dest
+     */
+    private void hashNodes(int from, int length, byte[] dest, int position) {
+        MessageDigest md = DIGEST.get();
+        md.update(nodes, from, length);
+        try {
+            md.digest(dest, position, hashSize);
+        } catch (DigestException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * hash of two nodes
+     *
+     * @param left left node
+     * @param right right node (null in the last node of a level with odd size)
+     * @return hash of the parent node
+     */
+    static byte[] hashNodes(byte[] left, byte[] right) {
+        MessageDigest md = DIGEST.get();
+        md.update(left);
+        if (right != null) {
+            md.update(right);
+        }
+        return md.digest();
+    }
+
+    /**
+     * indexes of the nodes of a level (parallel in large levels)
+     */
+    private static IntStream range(int size) {
+        IntStream range = IntStream.range(0, size);
+        return size >= PARALLEL_THRESHOLD ? range.parallel() : range;
     }
 
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
     //::::::::::::::::::::      A D D   E L E M E N T        :::::::::::::::::::
     ///////////////////////////////////////////////////////////////////////////
     /**
-     * add an element to the merkle tree
+     * add an element to the merkle tree - the upper levels are calculated
+     * again
      *
      * @param newData new data
      */
     public void add(T newData) {
-        //if tree is empty
-        if (hashTree.isEmpty()) {
-            //create first level
-            hashTree.add(new ArrayList<>());
-        }
         //save data in elements list
         this.elements.add(newData);
+        //add hash of new data to the leaves
+        List<byte[]> leaves = getLeaves();
+        leaves.add(getHashValue(encoder.encode(newData)));
+        makeTree(leaves);
+    }
+
+    /**
+     * calculate the proff of the element
+     *
+     * @param data element
+     * @return proof or null if the element is not in the tree
+     */
+    public MerkleProof getProof(T data) {
+        int index = indexOf(data);
+        return index < 0 ? null : getProof(index);
+    }
 
-        int level = hashTree.size() - 1;
-        //convert new data to byte array
-        //calculate hash o byte array
-        //add hash of new data to the last level
-        hashTree.get(level).add(getHashValue(objectToBytes(newData)));
-        //until the top of tree
-        while (level > 0) {
-            //number of elementos in level
-            int sizeOfLevel = hashTree.get(level).size();
-            //last element            
-            byte[] dataHash = hashTree.get(level).get(sizeOfLevel - 1);
-            // if size is even - replace the top element             
-            if (sizeOfLevel % 2 == 0) {
-                //concatenate the two last hashs
-                dataHash = concatenate(hashTree.get(level).get(sizeOfLevel - 2), dataHash);
-                //REPLACE the element in top                 
-                // top = level.size / 2
-                hashTree.get(level - 1).set((sizeOfLevel - 1) / 2, getHashValue(dataHash));
-            } //if size is odd and exists the level                           
-            else if (hashTree.get(level - 1).size() < sizeOfLevel / 2.0) {
-                //ADD the hash element in the top
-                hashTree.get(level - 1).add((sizeOfLevel - 1) / 2, getHashValue(dataHash));
-            } else {
-                //REPLACE the hash element in the top
-                hashTree.get(level - 1).set((sizeOfLevel - 1) / 2, getHashValue(dataHash));
+    /**
+     * calculate the proff of the leaf
+     *
+     * @param index index of the leaf
+     * @return proof with one sibling per level
+     */
+    public MerkleProof getProof(int index) {
+        int leaves = getLeafCount();
+        if (index < 0 || index >= leaves) {
+            throw new IndexOutOfBoundsException("Leaf " + index + " of " + leaves);
+        }
+        List<byte[]> siblings = new ArrayList<>();
+        int node = index;
+        for (int level = 0; level < offsets.length - 2; level++) {
+            //the last node of a level with odd size has no sibling
+            if ((node ^ 1) < levelSize(level)) {
+                siblings.add(getNode(level, node ^ 1));
             }
-            //next level (top)
-            level--;
+            node /= 2;
         }
+        return new MerkleProof(index, leaves, siblings);
+    }
 
-        //create a new level if necessary
-        if (hashTree.get(0).size() > 1) { //las level has two elements
-            //concatenate elements
-            //calculate hash
-            byte[] hash = getHashValue(concatenate(hashTree.get(0).get(0), hashTree.get(0).get(1)));
-            //create list with the hash
-            List<byte[]> lst = new ArrayList<>();
-            lst.add(hash);
-            //add list to the top
-            hashTree.add(0, lst);
+    /**
+     * calculate the proof of several elements
+     *
+     * @param data elements
+     * @return proof with the leaves in ascending order or null if an element
+     * is not in the tree
+     */
+    public MerkleMultiProof getMultiProof(Collection<T> data) {
+        int[] indexes = new int[data.size()];
+        int i = 0;
+        for (T elem : data) {
+            indexes[i] = indexOf(elem);
+            if (indexes[i++] < 0) {
+                return null;
+            }
         }
+        return getMultiProof(indexes);
     }
 
     /**
-     * calculate the proff of the element
+     * calculate the proof of several leaves - the nodes calculated from the
+     * leaves are not in the proof
      *
-     * @param data element
-     * @return list of proofs
-     */
-    public List<byte[]> getProof(T data) {
-        //list of proofs
-        List<byte[]> proof = new ArrayList<>();
-        //index of element
-        int index = elements.indexOf(data);
-        if (index < 0) { //element not found
-            return proof; // empty proof
+     * @param leaves indexes of the leaves
+     * @return proof with the leaves in ascending order
+     */
+    public MerkleMultiProof getMultiProof(int[] leaves) {
+        int[] indexes = Arrays.stream(leaves).sorted().distinct().toArray();
+        if (indexes.length > 0 && (indexes[0] < 0 || indexes[indexes.length - 1] >= getLeafCount())) {
+            throw new IndexOutOfBoundsException("Leaves " + Arrays.toString(leaves) + " of " + getLeafCount());
+        }
+        List<byte[]> hashes = new ArrayList<>();
+        int[] nodes = indexes.clone();
+        int count = nodes.length;
+        for (int level = 0; level < offsets.length - 2; level++) {
+            int parents = 0;
+            for (int k = 0; k < count; k++) {
+                int sibling = nodes[k] ^ 1;
+                if (k + 1 < count && nodes[k + 1] == sibling) {
+                    //sibling calculated from other leaf
+                    k++;
+                } else if (sibling < levelSize(level)) {
+                    hashes.add(getNode(level, sibling));
+                }
+                nodes[parents++] = nodes[k] / 2;
+            }
+            count = parents;
         }
-        //calculate proof
-        return getProof(index, hashTree.size() - 1, proof);
+        return new MerkleMultiProof(getLeafCount(), indexes, hashes);
     }
 
     /**
-     * calculate the proff of the element
+     * index of the element
      *
-     * @param index index of element
-     * @param level level of the tree
-     * @param proof list of proofs
-     * @return list of proofs
-     */
-    private List<byte[]> getProof(int index, int level, List<byte[]> proof) {
-        //add  2 elements [ even index , odd index ]  
-        if (level > 0) { // not the top
-            if (index % 2 == 0) { // is even [ index , index+1]
-                proof.add(hashTree.get(level).get(index));
-                //if have elements in the right
-                if (index + 1 < hashTree.get(level).size()) {
-                    proof.add(hashTree.get(level).get(index + 1));
-                }
-            } else {// is odd [ index - 1 , index]
-                proof.add(hashTree.get(level).get(index - 1));
-                proof.add(hashTree.get(level).get(index));
+     * @param data element
+     * @return index of the first leaf with the hash of the element or -1
+     */
+    public synchronized int indexOf(T data) {
+        if (leafIndexes == null) {
+            //hash of the leaf -> index
+            leafIndexes = new HashMap<>();
+            for (int i = getLeafCount() - 1; i >= 0; i--) {
+                leafIndexes.put(Base64.getEncoder().encodeToString(getNode(0, i)), i);
             }
-            //calculate top level
-            return getProof(index / 2, level - 1, proof);
-        } else {
-            //add root of tree
-            proof.add(getRoot());
-            return proof;
         }
+        Integer index = leafIndexes.get(Base64.getEncoder().encodeToString(getHashValue(encoder.encode(data))));
+        return index == null ? -1 : index;
     }
 
     /**
      * verify the proof of an element
      *
      * @param data dara
-     * @param proof list of proofs
+     * @param proof proof of the element
+     * @param root root of the tree
      * @return true if the proof is valid
      */
-    public static <T> boolean isProofValid(T data, List<byte[]> proof) {
+    public static <T> boolean isProofValid(T data, MerkleProof proof, byte[] root) {
+        return isProofValid(data, proof, root, LeafEncoder.CANONICAL);
+    }
 
-        if (proof.isEmpty()
-                || // proof is empty
-                // hash of element is invalid
-                !Arrays.equals(proof.get(0), getHashValue(objectToBytes(data)))) {
+    /**
+     * verify the proof of an element
+     *
+     * @param data dara
+     * @param proof proof of the element
+     * @param root root of the tree
+     * @param encoder bytes of the elements hashed in the leaves
+     * @return true if the proof is valid
+     */
+    public static <T> boolean isProofValid(T data, MerkleProof proof, byte[] root, LeafEncoder encoder) {
+        return proof != null && proof.verify(getHashValue(encoder.encode(data)), root);
+    }
+
+    /**
+     * verify the proof of several elements
+     *
+     * @param data elements in the order of the indexes of the proof
+     * @param proof proof of the elements
+     * @param root root of the tree
+     * @return true if the proof is valid
+     */
+    public static <T> boolean isProofValid(List<T> data, MerkleMultiProof proof, byte[] root) {
+        return isProofValid(data, proof, root, LeafEncoder.CANONICAL);
+    }
+
+    /**
+     * verify the proof of several elements
+     *
+     * @param data elements in the order of the indexes of the proof
+     * @param proof proof of the elements
+     * @param root root of the tree
+     * @param encoder bytes of the elements hashed in the leaves
+     * @return true if the proof is valid
+     */
+    public static <T> boolean isProofValid(List<T> data, MerkleMultiProof proof, byte[] root, LeafEncoder encoder) {
+        if (proof == null) {
             return false;
         }
-        //index in the proof
-        int index = 0;
-        //until the top
-        while (index < proof.size() - 1) {
-            // hash( proof[i] )  = proof[i+1]
-            if (Arrays.equals(getHashValue(proof.get(index)), (proof.get(index + 1)))) {
-                index++;
-            }// hash( proof[i] )  = proof[i+2]
-            else if (Arrays.equals(getHashValue(proof.get(index)), (proof.get(index + 2)))) {
-                index++;
-            }// hash( proof[i] + proof[i+1])  = proof[i+2]
-            else if (Arrays.equals(getHashValue(concatenate(proof.get(index), proof.get(index + 1))), (proof.get(index + 2)))) {
-                index += 2;
-            }// hash( proof[i] + proof[i+1])  = proof[i+3]
-            else if (Arrays.equals(getHashValue(concatenate(proof.get(index), proof.get(index + 1))), (proof.get(index + 3)))) {
-                index += 2;
-            } else {//corrupted
-                return false;
-            }
+        List<byte[]> leaves = new ArrayList<>(data.size());
+        for (T elem : data) {
+            leaves.add(getHashValue(encoder.encode(elem)));
         }
-        return true;
+        return proof.verify(leaves, root);
+    }
+
+    /**
+     * verify the proofs of elements of the same tree - the intermediate hashs
+     * are calculated once
+     *
+     * @param data elements
+     * @param proofs proofs of the elements
+     * @param root root of the tree
+     * @return true if all the proofs are valid
+     */
+    public static <T> boolean isProofValid(List<T> data, List<MerkleProof> proofs, byte[] root) {
+        return isProofValid(data, proofs, root, LeafEncoder.CANONICAL);
+    }
+
+    /**
+     * verify the proofs of elements of the same tree - the intermediate hashs
+     * are calculated once
+     *
+     * @param data elements
+     * @param proofs proofs of the elements
+     * @param root root of the tree
+     * @param encoder bytes of the elements hashed in the leaves
+     * @return true if all the proofs are valid
+     */
+    public static <T> boolean isProofValid(List<T> data, List<MerkleProof> proofs, byte[] root, LeafEncoder encoder) {
+        List<byte[]> leaves = new ArrayList<>(data.size());
+        for (T elem : data) {
+            leaves.add(getHashValue(encoder.encode(elem)));
+        }
+        return !proofs.contains(null) && MerkleProof.verifyAll(leaves, proofs, root);
     }
 
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
@@ -306,28 +509,28 @@ public final class MerkleTree<T> implements Serializable {
      */
     public boolean isValid() {
         //verify the hash of elements  int the bottom of tree
-        for (int i = 0; i < this.elements.size(); i++) {
-            if (!Arrays.equals(getHashValue(objectToBytes(this.elements.get(i))), (hashTree.get(hashTree.size() - 1).get(i)))) {
-                return false;
-            }
+        if (elements.size() != getLeafCount()) {
+            return false;
+        }
+        if (!range(elements.size()).allMatch(i
+                -> Arrays.equals(getHashValue(encoder.encode(this.elements.get(i))), getNode(0, i)))) {
+            return false;
         }
         //verify the levels of the tree
-        for (int level = 0; level < hashTree.size() - 1; level++) {
-            // verify level            
-            for (int index = 0; index < hashTree.get(level).size(); index++) {
-                //left leaf
-                byte[] dataLeafs = hashTree.get(level + 1).get(index * 2);
-                //if right leaf exists
-                if (index * 2 + 1 < hashTree.get(level + 1).size()) {
-                    //concatenate hashs
-                    dataLeafs = concatenate(dataLeafs, hashTree.get(level + 1).get(index * 2 + 1));
-                }
-                //calculate hash of leafs
-                byte[] hash = getHashValue(dataLeafs);
-                //verify the hash leafs
-                if (!Arrays.equals(hashTree.get(level).get(index), hash)) {
-                    return false;
-                }
+        for (int level = 1; level < offsets.length - 1; level++) {
+            int childs = levelSize(level - 1);
+            int first = offsets[level - 1];
+            int top = offsets[level];
+            boolean valid = range(levelSize(level)).allMatch(i -> {
+                //hash of the left and right leafs
+                byte[] hash = new byte[hashSize];
+                int length = 2 * i + 1 < childs ? 2 * hashSize : hashSize;
+                hashNodes((first + 2 * i) * hashSize, length, hash, 0);
+                int start = (top + i) * hashSize;
+                return Arrays.equals(hash, 0, hashSize, nodes, start, start + hashSize);
+            });
+            if (!valid) {
+                return false;
             }
         }
         //all is ok
@@ -337,7 +540,7 @@ public final class MerkleTree<T> implements Serializable {
     @Override
     public String toString() {
         StringBuilder txt = new StringBuilder();
-        for (List<byte[]> list : hashTree) {
+        for (List<byte[]> list : getHashTree()) {
             txt.append(byteArrayListToHex(list)).append("\n");
         }
         for (T elem : elements) {
@@ -391,12 +594,21 @@ public final class MerkleTree<T> implements Serializable {
      */
     public static byte[] getHashValue(byte[] data) {
         try {
-            return SecurityUtils.calculateHash(data, HASH_ALGORITHM);
+            return DIGEST.get().digest(data);
         } catch (Exception ex) {
             return "Hash ERROR".getBytes();
         }
     }
 
+    //message digest of each thread
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
     /**
      * calculates the hexadecimal string of byte Array
      *
@@ -476,7 +688,10 @@ public final class MerkleTree<T> implements Serializable {
     }
 
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
-    private static final long serialVersionUID = 202209131142L;
+    //new version - the hashs are in one array and the tree has the encoder
+    //of the leaves (trees of the old version fail with a serialVersionUID
+    //mismatch)
+    private static final long serialVersionUID = 202610180022L;
     //:::::::::::::::::::::::::::  Copyright(c) M@nso  2022  :::::::::::::::::::
 
 
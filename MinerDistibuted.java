@@ -15,12 +15,16 @@
  //////////////////////////////////////////////////////////////////////////////
 package foodchain;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created on 27/11/2024, 14:14:13
@@ -32,22 +36,28 @@ public class MinerDistibuted {
     //algorithm of hash
     public static String hashAlgorithm = "SHA3-256";
     //shared objects
-    AtomicInteger nonce = new AtomicInteger(0); //nonce of message
+    AtomicLong nonce = new AtomicLong(0); //nonce of message
     AtomicBoolean isWorking = new AtomicBoolean();
+    AtomicLong round = new AtomicLong(); //number of the round of mining
     AtomicBoolean isChampion = new AtomicBoolean();
     MinerListener listener;
     String message;
+    //number of threads used to mine
+    int cores = Runtime.getRuntime().availableProcessors();
 
     public void addListener(MinerListener listener) {
         this.listener = listener;
     }
 
-    public void stopMining(int number) {
-        if (!isWorking.get()) {//not working
-            return;
+    public void stopMining(long number) {
+        synchronized (this) {
+            if (!isWorking.get()) {//not working
+                return;
+            }
+            //stop mining - ends the round
+            isWorking.set(false);
+            round.incrementAndGet();
         }
-        //stop mining
-        isWorking.set(false);
         nonce.set(number);
         if (listener != null) {
             listener.onStopMining(number);
@@ -60,7 +70,7 @@ public class MinerDistibuted {
         return getHash(message + nonce.get());
     }
 
-    public int getNonce() {
+    public long getNonce() {
         return nonce.get();
     }
 
@@ -68,11 +78,100 @@ public class MinerDistibuted {
         return isWorking.get();
     }
 
+    /**
+     * @param round number of the round
+     * @return true if the round is mining (not stopped)
+     */
+    public boolean isMining(long round) {
+        return isWorking.get() && this.round.get() == round;
+    }
+
+    /**
+     * starts a round of mining - the round ends with stopMining or endMining
+     *
+     * @return number of the round or -1 if the miner is working
+     */
+    public synchronized long startMining() {
+        if (isWorking.get()) {
+            return -1;
+        }
+        return newRound();
+    }
+
+    /**
+     * ends the round if it was not stopped or replaced
+     *
+     * @param round number of the round
+     */
+    public synchronized void endMining(long round) {
+        if (this.round.get() == round) {
+            isWorking.set(false);
+        }
+    }
+
+    private synchronized long newRound() {
+        isWorking.set(true);
+        return round.incrementAndGet();
+    }
+
     public boolean isWinner() {
         return isChampion.get();
     }
 
-    public int mine(String msg, int dificulty) {
+    /**
+     * number of threads used to mine
+     *
+     * @return number of threads
+     */
+    public int getCores() {
+        return cores;
+    }
+
+    /**
+     * sets the number of threads used to mine
+     *
+     * @param cores number of threads ( less than 1 uses all cores )
+     */
+    public void setCores(int cores) {
+        if (cores < 1) {
+            cores = Runtime.getRuntime().availableProcessors();
+        }
+        this.cores = cores;
+    }
+
+    public long mine(String msg, int dificulty) {
+        //start tickets at random
+        Random rnd = new Random();
+        long first = Math.abs(rnd.nextInt());
+        //search all the positive numbers of the nonce
+        return mine(msg, dificulty, first, Long.MAX_VALUE);
+    }
+
+    /**
+     * mine the message in the range of nonces [first, last[
+     *
+     * @param msg message to mine
+     * @param dificulty number of leading zero bits
+     * @param first first nonce of the range
+     * @param last last nonce of the range (exclusive)
+     * @return nonce found
+     */
+    public long mine(String msg, int dificulty, long first, long last) {
+        return mine(msg, dificulty, first, last, newRound());
+    }
+
+    /**
+     * mine the message in the range of nonces [first, last[ in a round started
+     * by startMining - the miner stops if the round is stopped
+     *
+     * @param msg message to mine
+     * @param dificulty number of leading zero bits
+     * @param first first nonce of the range
+     * @param last last nonce of the range (exclusive)
+     * @param round number of the round
+     * @return nonce found
+     */
+    public long mine(String msg, int dificulty, long first, long last, long round) {
         this.message = msg;
         try {
             //notify listener
@@ -82,19 +181,23 @@ public class MinerDistibuted {
                 System.out.println("Start Mining " + dificulty + "\t" + msg);
             }
             //start shared objects
-            isWorking.set(true);
             isChampion.set(false);
-            nonce = new AtomicInteger(0); //nonce of message
-            //start tickets at random
-            Random rnd = new Random();
-            AtomicInteger ticket = new AtomicInteger(Math.abs(rnd.nextInt())); // tickets to numbers
-            //number of cores to work Allcores = Runtime.getRuntime().availableProcessors()
-            int cores = 1;
+            nonce = new AtomicLong(0); //nonce of message
+            //split the range of nonces by the threads
+            long size = Math.max(1, (last - first) / cores);
             //start threads
-            MinerThr thr[] = new MinerThr[cores];
-            for (int i = 0; i < thr.length; i++) {
-                thr[i] = new MinerThr(nonce, ticket, dificulty, msg);
-                thr[i].start();
+            List<MinerThr> thr = new ArrayList<>();
+            for (int i = 0; i < cores; i++) {
+                long from = first + i * size;
+                //range smaller than the number of threads
+                if (from >= last) {
+                    break;
+                }
+                //last thread takes the rest of the range
+                long to = i == cores - 1 ? last : Math.min(last, from + size);
+                MinerThr t = new MinerThr(nonce, from, to, dificulty, msg, round);
+                thr.add(t);
+                t.start();
             }
             //wait to threads stop
             for (MinerThr minerThr : thr) {
@@ -103,6 +206,8 @@ public class MinerDistibuted {
             //return de value of the nonce
             return nonce.get();
         } catch (InterruptedException ex) {
+            //stop the threads
+            endMining(round);
             return 0;
         }
 
@@ -110,53 +215,124 @@ public class MinerDistibuted {
 
     private class MinerThr extends Thread {
 
-        AtomicInteger trueNonce; //nounce found
-        AtomicInteger numberTicket; // number to test
-        int dificulty; // number of zeros
+        AtomicLong trueNonce; //nounce found
+        long firstNonce; // first number to test
+        long lastNonce; // last number to test (exclusive)
+        int dificulty; // number of leading zero bits
         String message; // message to mine
+        long round; // round of mining
 
-        public MinerThr(AtomicInteger nonce, AtomicInteger ticket, int dificulty, String msg) {
+        public MinerThr(AtomicLong nonce, long first, long last, int dificulty, String msg, long round) {
             this.trueNonce = nonce;
-            this.numberTicket = ticket;
+            this.firstNonce = first;
+            this.lastNonce = last;
             this.dificulty = dificulty;
             this.message = msg;
+            this.round = round;
+            //do not keep the jvm alive
+            setDaemon(true);
         }
 
         @Override
         public void run() {
-            //zeros to find in hash
-            String zeros = String.format("%0" + dificulty + "d", 0);
-            //nounce not found
-            while (trueNonce.get() == 0) {
-                //get a number to test
-                int n = numberTicket.getAndIncrement();
-                //calculate hash with nonce
-                String hash = getHash(message + n);
-                //starts with zeros
-                if (hash.startsWith(zeros)) {
-                    isChampion.set(true);
-                    //update true nonce
-                    trueNonce.set(n);
-                    //log information
-                    System.getLogger(MinerDistibuted.class.getName()).log(System.Logger.Level.INFO,
-                            Thread.currentThread().getName()
-                            + "Found nonce = " + n
-                            + "\nHash = " + hash
-                            + "\nMessage = ", message);
-
-                    //notify listener
-                    if (listener != null) {
-                        listener.onNonceFound(n);
-                    } else {
-                        System.out.println("Hash " + hash + "\nMessage " + message);
-                    }
+            try {
+                //one digest per thread reused in all attempts
+                MessageDigest md = MessageDigest.getInstance(hashAlgorithm);
+                byte[] hash = new byte[md.getDigestLength()];
+                //message bytes followed by the space of the nonce digits
+                byte[] prefix = message.getBytes();
+                byte[] buffer = Arrays.copyOf(prefix, prefix.length + MAX_NONCE_DIGITS);
+                //until stop mining, other thread wins or the range ends
+                for (long n = firstNonce; n < lastNonce && isMining(round) && !isChampion.get(); n++) {
+                    //write the nonce in the buffer and calculate hash
+                    int length = writeNonce(buffer, prefix.length, n);
+                    md.update(buffer, 0, length);
+                    md.digest(hash, 0, hash.length);
+                    //starts with zero bits and is the first thread to find
+                    if (isValidHash(hash, dificulty) && isChampion.compareAndSet(false, true)) {
+                        //update true nonce
+                        trueNonce.set(n);
+                        //log information
+                        String txtHash = Base64.getEncoder().encodeToString(hash);
+                        System.getLogger(MinerDistibuted.class.getName()).log(System.Logger.Level.INFO,
+                                Thread.currentThread().getName()
+                                + "Found nonce = " + n
+                                + "\nHash = " + txtHash
+                                + "\nMessage = ", message);
 
+                        //notify listener
+                        if (listener != null) {
+                            listener.onNonceFound(n);
+                        } else {
+                            System.out.println("Hash " + txtHash + "\nMessage " + message);
+                        }
+
+                    }
                 }
+            } catch (NoSuchAlgorithmException | DigestException ex) {
+                System.getLogger(MinerDistibuted.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
             }
         }
 
     }
 
+    //max number of chars of a long in decimal ( -9223372036854775808 )
+    private static final int MAX_NONCE_DIGITS = 20;
+
+    /**
+     * writes the decimal text of the nonce in the buffer ( same bytes of
+     * String.valueOf(nonce).getBytes() )
+     *
+     * @param buffer buffer with the message
+     * @param offset position of the nonce in the buffer
+     * @param nonce nonce
+     * @return length of the message with the nonce
+     */
+    static int writeNonce(byte[] buffer, int offset, long nonce) {
+        //work with negative values ( -Long.MIN_VALUE overflows )
+        long value = nonce;
+        if (value < 0) {
+            buffer[offset++] = '-';
+        } else {
+            value = -value;
+        }
+        //number of digits
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        //write digits from the end
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; i--) {
+            buffer[i] = (byte) ('0' - value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * verify if the hash starts with zero bits
+     *
+     * @param hash raw hash
+     * @param dificulty number of leading zero bits
+     * @return true if the hash starts with dificulty zero bits
+     */
+    public static boolean isValidHash(byte[] hash, int dificulty) {
+        if (dificulty > hash.length * Byte.SIZE) {
+            return false;
+        }
+        //full bytes of zeros
+        int bytes = dificulty / Byte.SIZE;
+        for (int i = 0; i < bytes; i++) {
+            if (hash[i] != 0) {
+                return false;
+            }
+        }
+        //remaining bits in the next byte
+        int bits = dificulty % Byte.SIZE;
+        return bits == 0 || (hash[bytes] & 0xFF) >>> (Byte.SIZE - bits) == 0;
+    }
+
     public static String getHash(String msg) {
         try {
             MessageDigest md = MessageDigest.getInstance(hashAlgorithm);
@@ -167,7 +343,7 @@ public class MinerDistibuted {
         }
     }
 
-    public static int getNonce(String msg, int dificulty) {
+    public static long getNonce(String msg, int dificulty) {
         System.err.println("MESAAGE : " + msg);
         MinerDistibuted miner = new MinerDistibuted();
         return miner.mine(msg, dificulty);
@@ -175,10 +351,24 @@ public class MinerDistibuted {
 
     public static void main(String[] args) {
         String msg = "Transaction demo to miner";
-        int n = getNonce(msg, 3);
+        long n = getNonce(msg, 18);
         System.out.println("Message = " + msg);
         System.out.println("Nonce = " + n);
         System.out.println("Hash = " + getHash(msg + n));
+        //:::::::::: hash rate ( string hash vs miner threads ) :::::::::
+        int attempts = 1_000_000;
+        long time = System.nanoTime();
+        for (int i = 0; i < attempts; i++) {
+            getHash(msg + i).startsWith("0000000000");
+        }
+        time = System.nanoTime() - time;
+        System.out.println("String hash  = " + attempts * 1_000_000_000L / time + " hash/s");
+        MinerDistibuted miner = new MinerDistibuted();
+        miner.setCores(1);
+        time = System.nanoTime();
+        miner.mine(msg, 256, 0, attempts);
+        time = System.nanoTime() - time;
+        System.out.println("Byte hash    = " + attempts * 1_000_000_000L / time + " hash/s (1 core)");
 
     }
 
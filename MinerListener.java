@@ -27,8 +27,8 @@ public interface MinerListener {
 
     public void onStartMining(String message, int dificulty);
 
-    public void onStopMining(int nonce);
+    public void onStopMining(long nonce);
 
-    public void onNonceFound(int nonce);
+    public void onNonceFound(long nonce);
 
 }
@@ -239,7 +239,7 @@ public class NodeP2PGui extends javax.swing.JFrame implements Nodelistener, Mine
         tpMain.addTab("Transactions", pnTransaction);
 
         spZeros.setFont(new java.awt.Font("Segoe UI", 1, 18)); // NOI18N
-        spZeros.setModel(new javax.swing.SpinnerNumberModel(3, 2, null, 1));
+        spZeros.setModel(new javax.swing.SpinnerNumberModel(18, 1, 256, 1));
         spZeros.setBorder(javax.swing.BorderFactory.createTitledBorder("Dificulty"));
 
         btStartMinig.setIcon(new javax.swing.ImageIcon(getClass().getResource("/multimedia/mine.png"))); // NOI18N
@@ -1512,8 +1512,9 @@ public class NodeP2PGui extends javax.swing.JFrame implements Nodelistener, Mine
     public void onBlockchain(BlockChain blk) {
         //display blockchain
         List<String> blocks = new ArrayList<>();
-        for (Block b : blk.getBlocks()) {
-            blocks.add(b.getID() + "");
+        //the ID of the block is the position in the blockchain
+        for (int id = 0; id < blk.getBlocks().size(); id++) {
+            blocks.add(id + "");
         }
         DefaultListModel model = new DefaultListModel();
         model.addAll(blocks);
@@ -1598,7 +1599,7 @@ public class NodeP2PGui extends javax.swing.JFrame implements Nodelistener, Mine
     }
 
     @Override
-    public void onStopMining(int nonce) {
+    public void onStopMining(long nonce) {
         SwingUtilities.invokeLater(() -> {
             try {
                 tpMain.setSelectedComponent(pnMiner);
@@ -1617,14 +1618,12 @@ public class NodeP2PGui extends javax.swing.JFrame implements Nodelistener, Mine
 
     @Override
 
-    public void onNonceFound(int nonce) {
+    public void onNonceFound(long nonce) {
         SwingUtilities.invokeLater(() -> {
             try {
                 imgWinner.setVisible(true);
-                myremoteObject.getMiner().stopMining(nonce);
-                for (RemoteNodeInterface node : myremoteObject.getNetwork()) {
-                    node.stopMining(nonce);
-                }
+                //stop the miners of the network and the coordinator
+                myremoteObject.stopMining(nonce);
                 //meter o nonce
                 myremoteObject.currentBlock.setNonce(nonce);
                 //adicionar o bloco
@@ -0,0 +1,90 @@
+package foodchain;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits the nonce space of a block among the nodes of the network.
+ *
+ * Each node asks for a range when it starts or finishes the previous one, so
+ * the ranges never overlap. The ranges of nodes that leave the network are
+ * given to the next node that asks. When all the nonces of the template are
+ * assigned the template changes the extra nonce and the nonces start again.
+ */
+public class NonceCoordinator {
+
+    //number of nonces of each range
+    public static final long RANGE_SIZE = 1L << 24;
+    //number of nonces of a block template
+    public static final long NONCE_SPACE = Long.MAX_VALUE;
+
+    //block template (extra nonce 0) and its id
+    private final Block template;
+    private final byte[] templateId;
+    private int extraNonce;
+    private long cursor;
+    //ranges in use by the nodes
+    private final Map<RemoteNodeInterface, NonceRange> assigned = new HashMap<>();
+    //ranges of nodes that left the network
+    private final Deque<NonceRange> released = new ArrayDeque<>();
+
+    /**
+     * constructor
+     *
+     * @param template block template
+     */
+    public NonceCoordinator(Block template) {
+        this.template = template;
+        this.templateId = NonceRange.templateIdOf(template);
+        this.extraNonce = template.getExtraNonce();
+        this.cursor = 0;
+    }
+
+    /**
+     * block template of the ranges
+     *
+     * @return block template
+     */
+    public Block getTemplate() {
+        return template;
+    }
+
+    /**
+     * next range of the node - the previous range of the node is finished
+     *
+     * @param node node that mines the range
+     * @return range to mine
+     */
+    public synchronized NonceRange next(RemoteNodeInterface node) {
+        //the previous range is finished
+        assigned.remove(node);
+        //ranges not finished by other nodes
+        NonceRange range = released.poll();
+        if (range == null) {
+            //all nonces of the template are assigned - next extra nonce
+            if (cursor >= NONCE_SPACE) {
+                extraNonce++;
+                cursor = 0;
+            }
+            long last = NONCE_SPACE - cursor > RANGE_SIZE ? cursor + RANGE_SIZE : NONCE_SPACE;
+            range = new NonceRange(templateId, extraNonce, cursor, last);
+            cursor = range.getLast();
+        }
+        assigned.put(node, range);
+        return range;
+    }
+
+    /**
+     * the node left the network - its range goes to other node
+     *
+     * @param node node
+     */
+    public synchronized void release(RemoteNodeInterface node) {
+        NonceRange range = assigned.remove(node);
+        if (range != null) {
+            released.add(range);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package foodchain;
+
+import java.io.Serializable;
+
+/**
+ * Range of nonces [first, last[ of a block template assigned to one node of
+ * the network.
+ *
+ * The range has only the id of the template and the extra nonce - the nodes
+ * download the template once (getBlockTemplate) and mine the header with the
+ * extra nonce of the range.
+ */
+public class NonceRange implements Serializable {
+
+    private final byte[] templateId;
+    private final int extraNonce;
+    private final long first;
+    private final long last;
+
+    /**
+     * constructor
+     *
+     * @param templateId id of the block template (templateIdOf)
+     * @param extraNonce extra nonce of the header
+     * @param first first nonce of the range
+     * @param last last nonce of the range (exclusive)
+     */
+    public NonceRange(byte[] templateId, int extraNonce, long first, long last) {
+        this.templateId = templateId;
+        this.extraNonce = extraNonce;
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * id of a block template - hash of the header of the template
+     *
+     * @param template block template
+     * @return hash of the header
+     */
+    public static byte[] templateIdOf(Block template) {
+        return MerkleTree.getHashValue(template.getHeaderData());
+    }
+
+    public byte[] getTemplateId() {
+        return templateId;
+    }
+
+    public int getExtraNonce() {
+        return extraNonce;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "Extra nonce " + extraNonce + " [" + first + " , " + last + "[";
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180019L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
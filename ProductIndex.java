@@ -0,0 +1,126 @@
+package foodchain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the transactions of each product in the blockchain.
+ *
+ * For each productId keeps the positions (block ID, index of the transaction
+ * in the block) of its transactions in the order of the blockchain. The
+ * products are kept in the order of their first transaction.
+ */
+public class ProductIndex implements Serializable {
+
+    //productId -> positions [ block ID (32 bits) | transaction index (32 bits) ]
+    private final Map<String, List<Long>> positions = new LinkedHashMap<>();
+
+    /**
+     * adds the transactions of the block to the index
+     *
+     * @param block block
+     */
+    public synchronized void add(Block block) {
+        List<?> transactions = block.getTransactions();
+        for (int i = 0; i < transactions.size(); i++) {
+            FoodTransaction tx = toTransaction(transactions.get(i));
+            if (tx != null) {
+                positions.computeIfAbsent(tx.getProduct().getProductId(), k -> new ArrayList<>())
+                        .add(position(block.getID(), i));
+            }
+        }
+    }
+
+    /**
+     * removes the transactions of the blocks with ID greater or equal to
+     * blockID
+     *
+     * @param blockID first block removed
+     */
+    public synchronized void removeFrom(int blockID) {
+        long first = position(blockID, 0);
+        Iterator<List<Long>> it = positions.values().iterator();
+        while (it.hasNext()) {
+            List<Long> list = it.next();
+            //positions are in order - remove from the end
+            while (!list.isEmpty() && list.get(list.size() - 1) >= first) {
+                list.remove(list.size() - 1);
+            }
+            if (list.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * positions of the transactions of the product
+     *
+     * @param productId id of product
+     * @return positions in the order of the blockchain
+     */
+    public synchronized List<Long> getPositions(String productId) {
+        return new ArrayList<>(positions.getOrDefault(productId, new ArrayList<>()));
+    }
+
+    /**
+     * position of the last transaction of each product
+     *
+     * @return positions in the order of the first transaction of the products
+     */
+    public synchronized List<Long> getLastPositions() {
+        List<Long> last = new ArrayList<>(positions.size());
+        for (List<Long> list : positions.values()) {
+            last.add(list.get(list.size() - 1));
+        }
+        return last;
+    }
+
+    /**
+     * copy of the index
+     *
+     * @return new index with the same positions
+     */
+    public synchronized ProductIndex copy() {
+        ProductIndex index = new ProductIndex();
+        for (Map.Entry<String, List<Long>> entry : positions.entrySet()) {
+            index.positions.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return index;
+    }
+
+    public static long position(int blockID, int transaction) {
+        return ((long) blockID << Integer.SIZE) | transaction;
+    }
+
+    public static int blockOf(long position) {
+        return (int) (position >>> Integer.SIZE);
+    }
+
+    public static int transactionOf(long position) {
+        return (int) position;
+    }
+
+    /**
+     * converts an element of a block to a food transaction
+     *
+     * @param element transaction or base64 of the transaction
+     * @return transaction or null if the element is not a food transaction
+     */
+    public static FoodTransaction toTransaction(Object element) {
+        if (element instanceof FoodTransaction) {
+            return (FoodTransaction) element;
+        }
+        if (element instanceof String) {
+            return (FoodTransaction) TransactionConverter.extractTransaction((String) element);
+        }
+        return null;
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180005L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
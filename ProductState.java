@@ -0,0 +1,91 @@
+package foodchain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.security.PublicKey;
+
+/**
+ * Current custody of a product - the product of the last transaction (station,
+ * location and status) and the user that holds it.
+ */
+public class ProductState implements Serializable {
+
+    private final FoodProduct product;
+    //holder of the product (producer in the creation, receiver in transfers)
+    private final String holder;
+    private final PublicKey holderKey;
+    //time of the last transaction
+    private final long timestamp;
+
+    public ProductState(FoodProduct product, String holder, PublicKey holderKey, long timestamp) {
+        this.product = product;
+        this.holder = holder;
+        this.holderKey = holderKey;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * state of the product after the transaction
+     *
+     * @param tx transaction
+     * @return custody of the product
+     */
+    public static ProductState of(FoodTransaction tx) {
+        return tx.isCreateTransaction()
+                ? new ProductState(tx.getProduct(), tx.getTxtSender(), tx.getSender(), tx.getTimestamp())
+                : new ProductState(tx.getProduct(), tx.getTxtReceiver(), tx.getReceiver(), tx.getTimestamp());
+    }
+
+    public String getProductId() {
+        return product.getProductId();
+    }
+
+    public FoodProduct getProduct() {
+        return product;
+    }
+
+    public String getHolder() {
+        return holder;
+    }
+
+    public PublicKey getHolderKey() {
+        return holderKey;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * canonical bytes of the state (hashed in the state tree)
+     *
+     * @return product in the format of BinaryCodec, holder and time
+     */
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            BinaryCodec.writeProduct(out, product);
+            BinaryCodec.writeString(out, holder);
+            BinaryCodec.writeBytes(out, holderKey == null ? null : holderKey.getEncoded());
+            out.writeLong(timestamp);
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return product.getProductId() + " @ " + product.getCurrentStation()
+                + " [" + product.getStatus() + "] holder " + holder;
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180013L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
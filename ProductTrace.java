@@ -0,0 +1,136 @@
+package foodchain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transactions of a product with one merkle multi-proof per block.
+ *
+ * The transactions of the product in the same block are verified together
+ * against the merkle root of the block.
+ *
+ * The merkle roots are sent by the node with the trace - the proofs show that
+ * the transactions are in blocks with those roots, not that the blocks are in
+ * the blockchain nor that the trace has all the transactions of the product.
+ * A client trusts the trace only if it compares the roots with headers it
+ * validated itself.
+ */
+public class ProductTrace implements Serializable {
+
+    private final String productId;
+    private final List<BlockProof> blocks = new ArrayList<>();
+
+    public ProductTrace(String productId) {
+        this.productId = productId;
+    }
+
+    /**
+     * adds the transactions of the product in one block
+     *
+     * @param blockID ID of the block
+     * @param merkleRoot merkle root of the block
+     * @param transactions transactions in the order of the block
+     * @param proof proof of the transactions
+     */
+    public void add(int blockID, byte[] merkleRoot, List<Object> transactions, MerkleMultiProof proof) {
+        blocks.add(new BlockProof(blockID, merkleRoot, transactions, proof));
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public List<BlockProof> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * transactions of the product
+     *
+     * @return transactions in the order of the blockchain
+     */
+    public List<Object> getTransactions() {
+        List<Object> transactions = new ArrayList<>();
+        for (BlockProof block : blocks) {
+            transactions.addAll(block.transactions);
+        }
+        return transactions;
+    }
+
+    /**
+     * verify the proofs of all the blocks against the merkle roots of the
+     * trace
+     *
+     * @return true if the trace is not empty and all the transactions are in
+     * blocks with the roots of the trace
+     */
+    public boolean isValid() {
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        for (BlockProof block : blocks) {
+            if (!block.isValid()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Trace of " + productId + " [" + blocks.size() + " blocks]";
+    }
+
+    /**
+     * transactions of the product in one block and the proof
+     */
+    public static class BlockProof implements Serializable {
+
+        private final int blockID;
+        private final byte[] merkleRoot;
+        private final List<Object> transactions;
+        private final MerkleMultiProof proof;
+
+        BlockProof(int blockID, byte[] merkleRoot, List<Object> transactions, MerkleMultiProof proof) {
+            this.blockID = blockID;
+            this.merkleRoot = merkleRoot;
+            this.transactions = transactions;
+            this.proof = proof;
+        }
+
+        public int getBlockID() {
+            return blockID;
+        }
+
+        public byte[] getMerkleRoot() {
+            return merkleRoot;
+        }
+
+        public List<Object> getTransactions() {
+            return transactions;
+        }
+
+        public MerkleMultiProof getProof() {
+            return proof;
+        }
+
+        /**
+         * verify the proof against the merkle root of the block (blocks
+         * created before the canonical encoding of the leaves use java
+         * serialization)
+         *
+         * @return true if the transactions are in the block
+         */
+        public boolean isValid() {
+            return MerkleTree.isProofValid(transactions, proof, merkleRoot)
+                    || MerkleTree.isProofValid(transactions, proof, merkleRoot, LeafEncoder.JAVA_SERIALIZATION);
+        }
+
+        private static final long serialVersionUID = 202610180012L;
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180011L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
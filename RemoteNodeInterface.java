@@ -16,6 +16,7 @@
  //////////////////////////////////////////////////////////////////////////////
 package foodchain;
 
+import java.math.BigInteger;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
@@ -37,18 +38,87 @@ public interface RemoteNodeInterface extends Remote {
     //::::::::::: T R A N S A C T I O N S  :::::::::::
     public void addTransaction(String data) throws RemoteException;
 
+    /**
+     * adds a batch of transactions - the transactions that the node already
+     * has are ignored
+     *
+     * @param data transactions
+     * @throws RemoteException
+     */
+    public void addTransactions(List<String> data) throws RemoteException;
+
+    /**
+     * announces transactions - the node requests the transactions that it
+     * doesn't have to the node that announced them
+     *
+     * @param from node that has the transactions
+     * @param hashes hashes of the transactions (Mempool.hashOf)
+     * @throws RemoteException
+     */
+    public void announceTransactions(RemoteNodeInterface from, List<String> hashes) throws RemoteException;
+
+    /**
+     * pending transactions with the hashes
+     *
+     * @param hashes hashes of the transactions
+     * @return transactions found in the mempool
+     * @throws RemoteException
+     */
+    public List<String> getTransactionsByHash(List<String> hashes) throws RemoteException;
+
     public List<String> getTransactions() throws RemoteException;
 
     //::::::::::: M I N E R  :::::::::::
     public void startMiner(String message, int dificulty) throws RemoteException;
 
-    public void stopMining(int nonce) throws RemoteException;
+    public void stopMining(long nonce) throws RemoteException;
+
+    public void mineBlock(RemoteNodeInterface coordinator) throws RemoteException;
+
+    public NonceRange getNonceRange(RemoteNodeInterface node) throws RemoteException;
+
+    /**
+     * block template of the nonce ranges of the coordinator
+     *
+     * @return block template or null if the node is not mining
+     * @throws RemoteException
+     */
+    public Block getBlockTemplate() throws RemoteException;
 
     public MinerDistibuted getMiner() throws RemoteException;
     //::::::::::: B L O C K C H A I N  :::::::::::
 
     public void addBlock(Block b) throws RemoteException;
 
+    /**
+     * announces a block - the node downloads the block if doesn't have it
+     *
+     * @param from node that has the block
+     * @param id ID of the block
+     * @param hash hash of the block
+     * @throws RemoteException
+     */
+    public void announceBlock(RemoteNodeInterface from, int id, byte[] hash) throws RemoteException;
+
+    /**
+     * block as the header and the short IDs of the transactions
+     *
+     * @param id ID of the block
+     * @return compact block or null if the block can't be compacted
+     * @throws RemoteException
+     */
+    public CompactBlock getCompactBlock(int id) throws RemoteException;
+
+    /**
+     * transactions of a block
+     *
+     * @param id ID of the block
+     * @param indexes indexes of the transactions in the block
+     * @return transactions
+     * @throws RemoteException
+     */
+    public List<String> getBlockTransactions(int id, List<Integer> indexes) throws RemoteException;
+
     public int getBlockchainSize() throws RemoteException;
 
     public Block getlastBlock() throws RemoteException;
@@ -59,5 +129,93 @@ public interface RemoteNodeInterface extends Remote {
 
     public void synchronizeBlockchain(RemoteNodeInterface node) throws RemoteException;
 
+    /**
+     * hashes of the blocks [from, from + count[
+     *
+     * @param from ID of the first block
+     * @param count number of blocks (max ChainSync.MAX_HASHES)
+     * @return hashes of the blocks
+     * @throws RemoteException
+     */
+    public List<byte[]> getBlockHashes(int from, int count) throws RemoteException;
+
+    /**
+     * blocks [from, from + count[
+     *
+     * @param from ID of the first block
+     * @param count number of blocks (max ChainSync.BLOCK_BATCH)
+     * @return blocks
+     * @throws RemoteException
+     */
+    public List<Block> getBlocks(int from, int count) throws RemoteException;
+
+    /**
+     * work of the blocks after the first blocks
+     *
+     * @param from ID of the first block
+     * @return sum of the work of the blocks [from, size[
+     * @throws RemoteException
+     */
+    public BigInteger getChainWork(int from) throws RemoteException;
+
     public List getRegisteredTransactions() throws RemoteException;
+
+    /**
+     * transactions of a product registered in the blockchain
+     *
+     * @param productId id of the product
+     * @return transactions of the product in the order of the blockchain
+     * @throws RemoteException
+     */
+    public List<Object> getProductTransactions(String productId) throws RemoteException;
+
+    /**
+     * transactions of a product with a merkle multi-proof of each block
+     *
+     * @param productId id of the product
+     * @return transactions of the product grouped by block
+     * @throws RemoteException
+     */
+    public ProductTrace getProductTrace(String productId) throws RemoteException;
+
+    /**
+     * current state of a product (product of the last transaction and holder)
+     *
+     * @param productId id of the product
+     * @return state of the product or null if the product is not in the
+     * blockchain
+     * @throws RemoteException
+     */
+    public ProductState getProductState(String productId) throws RemoteException;
+
+    /**
+     * proof of the current state of a product against the state root of the
+     * last block
+     *
+     * @param productId id of the product
+     * @return proof of the state (or of the absence) of the product
+     * @throws RemoteException
+     */
+    public StateProof getStateProof(String productId) throws RemoteException;
+
+    /**
+     * last transaction of each product registered in the blockchain
+     *
+     * @return transactions in the order of the first transaction of the
+     * products
+     * @throws RemoteException
+     */
+    public List<Object> getLatestProductTransactions() throws RemoteException;
+
+    /**
+     * food transactions of the blockchain that match the query - the filter is
+     * executed by the node and only one page is returned
+     *
+     * @param query filter of the transactions
+     * @param cursor cursor of the page (TransactionPage.START for the first)
+     * @param pageSize max number of transactions
+     * @return page with the transactions and the cursor of the next page
+     * @throws RemoteException
+     */
+    public TransactionPage queryTransactions(TransactionQuery query, long cursor, int pageSize) throws RemoteException;
 }
@@ -15,19 +15,30 @@
  //////////////////////////////////////////////////////////////////////////////
 package foodchain;
 
+import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.rmi.RemoteException;
 import java.rmi.server.RemoteServer;
 import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import utils.RMI;
+import utils.Utils;
 
 /**
  * Created on 27/11/2024, 17:48:32
@@ -40,11 +51,35 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
 
     String address;
     Set<RemoteNodeInterface> network;
-    Set<String> transactions;
+    Mempool transactions; //pending transactions
     Nodelistener listener;
     MinerDistibuted miner = new MinerDistibuted();
     BlockChain blockchain;
     Block currentBlock;
+    NonceCoordinator coordinator; //ranges of nonces of the network
+    Broadcaster broadcaster = new Broadcaster(this::removeNode); //calls to the network
+    //transactions announced to the network in batches
+    TransactionBatcher batcher = new TransactionBatcher(this::announceTransactions);
+    static final int MAX_RELAYED = 1024;
+    //hashes of the blocks relayed by the node (the last MAX_RELAYED)
+    Set<String> relayed = Collections.synchronizedSet(Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_RELAYED;
+        }
+    }));
+    //hashes of the transactions requested to other nodes -> time of the request
+    Map<String, Long> requested = new ConcurrentHashMap<>();
+    //downloads and synchronizations of the blocks announced by other nodes -
+    //one at a time and out of the threads of the broadcaster
+    ExecutorService syncs = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "block-sync");
+        t.setDaemon(true);
+        return t;
+    });
+    //node -> last block announced (ID, hash) waiting in syncs
+    Map<RemoteNodeInterface, Map.Entry<Integer, byte[]>> announced = new ConcurrentHashMap<>();
 
     public RemoteNodeObject(int port, Nodelistener listener) throws RemoteException {
         super(port);
@@ -53,8 +88,10 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
             String host = InetAddress.getLocalHost().getHostAddress();
             this.address = RMI.getRemoteName(host, port, REMOTE_OBJECT_NAME);
             this.network = new CopyOnWriteArraySet<>();
-            this.transactions = new CopyOnWriteArraySet<>();
+            this.transactions = new Mempool();
             this.blockchain = BlockChain.load("data/" + port + "/", "blockchain.blc");
+            //pending transactions of the last checkpoint
+            this.transactions.addAll(blockchain.getPendingTransactions());
             // addNode(this);
             this.listener = listener;
             if (listener != null) {
@@ -68,6 +105,9 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
             if (listener != null) {
                 listener.onException(ex, "Start remote Object");
             }
+        } catch (Exception ex) {
+            //the node doesn't start without its blockchain
+            throw new RemoteException("Blockchain of the node not loaded", ex);
         }
 
     }
@@ -91,6 +131,10 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
         node.addNode(this);
         //sincronizar a blockchain
         synchronizeBlockchain(node);
+        //juntar o no a mineração
+        if (coordinator != null) {
+            broadcaster.send(node, n -> n.mineBlock(this));
+        }
         //propagar o no na rede
         for (RemoteNodeInterface iremoteP2P : network) {
             iremoteP2P.addNode(node);
@@ -113,39 +157,125 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
     public List<RemoteNodeInterface> getNetwork() throws RemoteException {
         return new ArrayList<>(network);
     }
+
+    /**
+     * removes a node that fails - the nonces of the node go to other nodes
+     *
+     * @param node node
+     */
+    private void removeNode(RemoteNodeInterface node) {
+        network.remove(node);
+        broadcaster.remove(node);
+        NonceCoordinator c = coordinator;
+        if (c != null) {
+            c.release(node);
+        }
+    }
 //::::::::::: T R A NS A C T IO N S  :::::::::::
 
     @Override
     public void addTransaction(String data) throws RemoteException {
-        if (this.transactions.contains(data)) {
+        //se já tiver a transação - não faz nada
+        if (!this.transactions.add(data)) {
             return;
         }
-        this.transactions.add(data);
-        for (RemoteNodeInterface node : network) {
-            //uma thread para ligar a cada no
-            new Thread(() -> {
-                try {
-                    node.addTransaction(data);
-                } catch (Exception e) {
-                    network.remove(node);
-                }
-            }).start();
-
-        }
+        //enviar a transação para a rede no próximo lote
+        batcher.add(data);
         if (listener != null) {
             listener.onConect("");
             listener.onTransaction(data);
         } else {
             System.out.println("Transaction from  " + getRemoteHost());
         }
-        for (String t : transactions) {
-            System.out.println(t);
+    }
+
+    @Override
+    public void addTransactions(List<String> data) throws RemoteException {
+        //apenas as transações novas
+        List<String> news = new ArrayList<>();
+        for (String tx : data) {
+            if (this.transactions.add(tx)) {
+                news.add(tx);
+            }
+        }
+        if (news.isEmpty()) {
+            return;
+        }
+        //enviar as transações novas para a rede
+        batcher.addAll(news);
+        if (listener != null) {
+            listener.onConect("");
+            listener.onTransaction(news.size() + " transactions");
+        } else {
+            System.out.println(news.size() + " transactions from  " + getRemoteHost());
+        }
+    }
+
+    /**
+     * announces the hashes of the transactions to the network - the nodes
+     * request the transactions that they don't have
+     *
+     * @param batch transactions
+     */
+    private void announceTransactions(List<String> batch) {
+        List<String> hashes = new ArrayList<>(batch.size());
+        for (String tx : batch) {
+            hashes.add(Mempool.hashOf(tx));
+        }
+        broadcaster.broadcast(network, node -> node.announceTransactions(this, hashes));
+    }
+
+    @Override
+    public void announceTransactions(RemoteNodeInterface from, List<String> hashes) throws RemoteException {
+        //transactions that are not in the mempool or requested to other node
+        long now = System.currentTimeMillis();
+        Set<String> missing = new HashSet<>();
+        for (String hash : hashes) {
+            if (!transactions.containsHash(hash)
+                    //new request or the last request expired
+                    && requested.compute(hash, (h, time) -> time == null
+                    || now - time > Broadcaster.CALL_TIMEOUT ? now : time) == now) {
+                missing.add(hash);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        //download the transactions from the node that announced them
+        boolean sent = broadcaster.send(from, node -> {
+            try {
+                List<String> received = new ArrayList<>();
+                for (String tx : node.getTransactionsByHash(new ArrayList<>(missing))) {
+                    //only the transactions requested
+                    if (missing.contains(Mempool.hashOf(tx))) {
+                        received.add(tx);
+                    }
+                }
+                addTransactions(received);
+            } finally {
+                requested.keySet().removeAll(missing);
+            }
+        });
+        if (!sent) {
+            requested.keySet().removeAll(missing);
+        }
+    }
+
+    @Override
+    public List<String> getTransactionsByHash(List<String> hashes) throws RemoteException {
+        List<String> list = new ArrayList<>();
+        for (String hash : hashes) {
+            String tx = transactions.get(hash);
+            if (tx != null) {
+                list.add(tx);
+            }
         }
+        return list;
     }
 
     @Override
     public List<String> getTransactions() throws RemoteException {
-        return new ArrayList<>(transactions);
+        return transactions.snapshot();
         
     }
 
@@ -165,46 +295,103 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
     @Override
     public void startMiner(String message, int dificulty) throws RemoteException {
 
+        if (transactions.isEmpty()) {
+            return; // não faz nada
+        }
 //        se estiver a minar
-        if (miner.isMining() || transactions.isEmpty()) {
+        long round = miner.startMining();
+        if (round < 0) {
             return; // não faz nada
         }
         //criar um bloco com as transações
-        currentBlock = blockchain.createNewBlock(new ArrayList<>(transactions));
-        miner.isWorking.set(true);
-        for (RemoteNodeInterface node : network) {
-            //uma thread para ligar a cada no
-            new Thread(() -> {
-                try {
-                    node.startMiner(message, dificulty);
-                } catch (Exception e) {
-                    network.remove(node);
-                }
-            }).start();
-        }        
+        currentBlock = blockchain.createNewBlock(transactions.snapshot(BlockChain.MAX_BLOCK_TRANSACTIONS));
+        //dividir os nonces do bloco pela rede
+        coordinator = new NonceCoordinator(currentBlock);
+        broadcaster.broadcast(network, node -> node.mineBlock(this));
+        mineRanges(this, round);
+    }
+
+    @Override
+    public void mineBlock(RemoteNodeInterface coordinator) throws RemoteException {
+        //se estiver a minar
+        long round = miner.startMining();
+        if (round < 0) {
+            return; // não faz nada
+        }
+        mineRanges(coordinator, round);
+    }
+
+    @Override
+    public NonceRange getNonceRange(RemoteNodeInterface node) throws RemoteException {
+        NonceCoordinator c = coordinator;
+        //not mining
+        if (c == null) {
+            return null;
+        }
+        return c.next(node);
+    }
+
+    @Override
+    public Block getBlockTemplate() throws RemoteException {
+        NonceCoordinator c = coordinator;
+        return c == null ? null : c.getTemplate();
+    }
+
+    /**
+     * mine the ranges of nonces given by the coordinator until stop mining
+     * or find the nonce
+     *
+     * @param coordinator node that coordinates the mining
+     * @param round round of mining of the miner
+     */
+    private void mineRanges(RemoteNodeInterface coordinator, long round) {
         new Thread(() -> {
-            miner.mine(currentBlock.getHeaderDataBase64(), dificulty);
+            try {
+                NonceRange range = coordinator.getNonceRange(this);
+                Block template = null;
+                byte[] templateId = null;
+                while (range != null && miner.isMining(round)) {
+                    //download the template once (the ranges have only its id)
+                    if (!Arrays.equals(templateId, range.getTemplateId())) {
+                        template = coordinator.getBlockTemplate();
+                        templateId = template == null ? null : NonceRange.templateIdOf(template);
+                        if (!Arrays.equals(templateId, range.getTemplateId())) {
+                            //the coordinator changed the template
+                            range = coordinator.getNonceRange(this);
+                            continue;
+                        }
+                    }
+                    //mine the header of the range (same block in all nodes)
+                    currentBlock = template.withExtraNonce(range.getExtraNonce());
+                    miner.mine(currentBlock.getHeaderDataBase64(), currentBlock.getDificulty(),
+                            range.getFirst(), range.getLast(), round);
+                    if (miner.isWinner()) {
+                        //the winner stops the round with the nonce
+                        return;
+                    }
+                    range = coordinator.getNonceRange(this);
+                }
+                //no more ranges - the coordinator stopped mining
+                miner.endMining(round);
+            } catch (RemoteException ex) {
+                //coordinator left the network
+                miner.endMining(round);
+                if (listener != null) {
+                    listener.onException(ex, "Mining");
+                }
+            }
         }).start();
     }
 
     @Override
-    public void stopMining(int nonce) throws RemoteException {
+    public void stopMining(long nonce) throws RemoteException {
         //se não estiver a minar
         if (!miner.isMining()) {
             return; //nao faz nada
         }
         miner.stopMining(nonce);
-        for (RemoteNodeInterface node : network) {
-            //uma thread para ligar a cada no
-            new Thread(() -> {
-                try {
-                    node.stopMining(nonce);
-                } catch (Exception e) {
-                    network.remove(node);
-                }
-            }).start();
-
-        }
+        coordinator = null;
+        broadcaster.broadcast(network, node -> node.stopMining(nonce));
     }
 
     @Override
@@ -212,7 +399,7 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
         return miner;
     }
 
-    public void setNonce(int nonce) throws Exception {
+    public void setNonce(long nonce) throws Exception {
         currentBlock.setNonce(nonce);
         addBlock(currentBlock);
     }
@@ -223,21 +410,23 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
         System.out.println("add " + block.toString());
         try {
             //blockchain constains the current block
-            if (this.blockchain.getBlocks().contains(block)) {
+            if (this.blockchain.contains(block)) {
                 return;
             }
             //add block
             blockchain.add(block);
-            //propagate block
-            for (RemoteNodeInterface node : network) {
-                node.addBlock(block);
+            //the template of the coordinator is not the next block
+            NonceCoordinator c = coordinator;
+            if (c != null && c.getTemplate().getID() <= block.getID()) {
+                coordinator = null;
             }
+            //announce the block in background
+            relayBlock(block);
             //remove transactions of block
-            List<String> blockTrasactions = block.getData().getElements();
-            for (String blockt : blockTrasactions) {
-                if (transactions.contains(blockt)) {
-                    transactions.remove(blockt);
-                }
+            transactions.removeAll(block.getTransactions());
+            //save the state of the node
+            if (blockchain.needsCheckpoint()) {
+                blockchain.saveCheckpoint(transactions.snapshot());
             }
             //notify listener
             if (listener != null) {
@@ -249,6 +438,131 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
         }
     }
 
+    /**
+     * announces the block to the network in the threads of the broadcaster -
+     * each block is announced once by the node
+     *
+     * @param block block
+     */
+    private void relayBlock(Block block) {
+        if (!relayed.add(Utils.toString(block.getCurrentHash()))) {
+            return;
+        }
+        int id = block.getID();
+        byte[] hash = block.getCurrentHash();
+        //the nodes download the block if they don't have it
+        broadcaster.broadcast(network, node -> node.announceBlock(this, id, hash));
+    }
+
+    @Override
+    public void announceBlock(RemoteNodeInterface from, int id, byte[] hash) throws RemoteException {
+        //blockchain constains the block
+        if (blockchain.contains(id, hash)) {
+            return;
+        }
+        //the last announcement of the node replaces the one waiting
+        if (announced.put(from, new AbstractMap.SimpleImmutableEntry<>(id, hash)) == null) {
+            syncs.execute(() -> syncBlock(from));
+        }
+    }
+
+    /**
+     * downloads the last block announced by the node - a failure or a long
+     * synchronization doesn't remove the node from the broadcaster
+     *
+     * @param node node that announced the block
+     */
+    private void syncBlock(RemoteNodeInterface node) {
+        Map.Entry<Integer, byte[]> block = announced.remove(node);
+        try {
+            int id = block.getKey();
+            byte[] hash = block.getValue();
+            //block received from other node
+            if (blockchain.contains(id, hash)) {
+                return;
+            }
+            //next block - download only the block
+            if (id == getBlockchainSize()) {
+                Block next = downloadBlock(node, id, hash);
+                if (next != null) {
+                    try {
+                        addBlock(next);
+                        return;
+                    } catch (RemoteException ex) {
+                        //block of other branch
+                    }
+                }
+            }
+            //missing blocks or other branch - chooses the branch with more work
+            synchronizeBlockchain(node);
+        } catch (Exception ex) {
+            if (listener != null) {
+                listener.onException(ex, "Synchronize blockchain");
+            } else {
+                System.err.println("Synchronize blockchain " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * downloads a block as a compact block - the transactions are read from
+     * the mempool and only the missing transactions are downloaded
+     *
+     * @param node node with the block
+     * @param id ID of the block
+     * @param hash hash of the block
+     * @return block or null if the node doesn't have the block
+     * @throws RemoteException
+     */
+    private Block downloadBlock(RemoteNodeInterface node, int id, byte[] hash) throws RemoteException {
+        CompactBlock compact = node.getCompactBlock(id);
+        if (compact != null && Arrays.equals(compact.getCurrentHash(), hash)) {
+            List<String> txs = compact.match(transactions);
+            List<Integer> missing = CompactBlock.missing(txs);
+            if (!missing.isEmpty()) {
+                List<String> received = node.getBlockTransactions(id, missing);
+                for (int i = 0; i < missing.size() && i < received.size(); i++) {
+                    txs.set(missing.get(i), received.get(i));
+                }
+            }
+            if (!txs.contains(null)) {
+                Block block = compact.toBlock(txs);
+                if (block != null) {
+                    return block;
+                }
+            }
+        }
+        //full block (block with other elements or short IDs with colisions)
+        List<Block> blocks = node.getBlocks(id, 1);
+        if (!blocks.isEmpty() && Arrays.equals(blocks.get(0).getCurrentHash(), hash)) {
+            return blocks.get(0);
+        }
+        return null;
+    }
+
+    @Override
+    public CompactBlock getCompactBlock(int id) throws RemoteException {
+        if (id < 0 || id >= getBlockchainSize()) {
+            return null;
+        }
+        return CompactBlock.of(blockchain.getBlockID(id));
+    }
+
+    @Override
+    public List<String> getBlockTransactions(int id, List<Integer> indexes) throws RemoteException {
+        List<String> list = new ArrayList<>();
+        if (id < 0 || id >= getBlockchainSize()) {
+            return list;
+        }
+        List<?> txs = blockchain.getBlockID(id).getTransactions();
+        for (int index : indexes) {
+            if (index >= 0 && index < txs.size()) {
+                list.add((String) txs.get(index));
+            }
+        }
+        return list;
+    }
+
     @Override
     public int getBlockchainSize() throws RemoteException {
         return blockchain.getBlocks().size();
@@ -262,7 +576,8 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
     @Override
     public void setBlockchain(BlockChain b) throws RemoteException {
         try {
-            this.blockchain.setBlocks(b.getBlocks());
+            List<Object> orphaned = this.blockchain.setBlocks(b.getBlocks());
+            updateTransactions(b.getBlocks(), orphaned);
              //notify listener
             if (listener != null) {
                 listener.onBlockchain(blockchain);
@@ -278,38 +593,93 @@ public class RemoteNodeObject extends UnicastRemoteObject implements RemoteNodeI
 
     @Override
     public void synchronizeBlockchain(RemoteNodeInterface node) throws RemoteException {
-        //::::::::::::::::::::::::::::::::::::::::
-        //node blockchain is bigger
-        if (node.getBlockchainSize() > getBlockchainSize()) {
-            setBlockchain(node.getBlockchain());
+        ChainSync sync = new ChainSync(blockchain, node);
+        try {
+            //download only the missing blocks of the branch with more work
+            sync.synchronize();
+        } catch (Exception ex) {
+            throw new RemoteException("Synchronize blockchain", ex);
+        }
+        if (!sync.getReceived().isEmpty()) {
+            updateTransactions(sync.getReceived(), sync.getOrphaned());
+            //announce the new last block
+            relayBlock(blockchain.getLastBlock());
             //notify listener
             if (listener != null) {
                 listener.onBlockchain(blockchain);
             }
         }//::::::::::::::::::::::::::::::::::::::::
-        //my blockchain is bigger
-        else if (node.getBlockchainSize() < getBlockchainSize()) {
-            //update node blockchain
-            node.setBlockchain(blockchain);
-        } //::::::::::::::::::::::::::::::::::::::::
-        //the size is equal
-        else {
-            // my last block time is younger
-            if (getlastBlock().getTimestamp() > node.getlastBlock().getTimestamp()) {
-                setBlockchain(node.getBlockchain());
-                //notify listener
-                if (listener != null) {
-                    listener.onBlockchain(blockchain);
-                }
-            }
-            // my last block time is older
-            if (getlastBlock().getTimestamp() < node.getlastBlock().getTimestamp()) {
-                //update node blockchain
-                node.setBlockchain(blockchain);
-            }
+        //my blockchain has more work
+        else if (sync.isLocalBetter()) {
+            //node downloads my blocks
+            node.synchronizeBlockchain(this);
+        }
+    }
+
+    /**
+     * updates the pending transactions after a change of the blockchain
+     *
+     * @param added blocks added
+     * @param orphaned transactions of the blocks removed
+     */
+    private void updateTransactions(List<Block> added, List<Object> orphaned) {
+        for (Object tx : orphaned) {
+            transactions.add((String) tx);
+        }
+        for (Block block : added) {
+            transactions.removeAll(block.getTransactions());
         }
+        if (listener != null) {
+            listener.onTransaction("");
+        }
+    }
+
+    @Override
+    public List<byte[]> getBlockHashes(int from, int count) throws RemoteException {
+        return blockchain.getBlockHashes(from, Math.min(count, ChainSync.MAX_HASHES));
     }
+
+    @Override
+    public List<Block> getBlocks(int from, int count) throws RemoteException {
+        return blockchain.getBlocks(from, Math.min(count, ChainSync.BLOCK_BATCH));
+    }
+
+    @Override
+    public BigInteger getChainWork(int from) throws RemoteException {
+        return blockchain.getWork(from);
+    }
+
      public List getRegisteredTransactions() throws RemoteException{         
          return blockchain.getTransactions();
      }
+
+    @Override
+    public List<Object> getProductTransactions(String productId) throws RemoteException {
+        return blockchain.getProductTransactions(productId);
+    }
+
+    @Override
+    public ProductTrace getProductTrace(String productId) throws RemoteException {
+        return blockchain.getProductTrace(productId);
+    }
+
+    @Override
+    public ProductState getProductState(String productId) throws RemoteException {
+        return blockchain.getProductState(productId);
+    }
+
+    @Override
+    public StateProof getStateProof(String productId) throws RemoteException {
+        return blockchain.getStateProof(productId);
+    }
+
+    @Override
+    public List<Object> getLatestProductTransactions() throws RemoteException {
+        return blockchain.getLatestProductTransactions();
+    }
+
+    @Override
+    public TransactionPage queryTransactions(TransactionQuery query, long cursor, int pageSize) throws RemoteException {
+        return blockchain.query(query, cursor, pageSize);
+    }
 }
@@ -0,0 +1,113 @@
+package foodchain;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Proof of the state of a product in the state tree, or proof that the
+ * product is not in the tree.
+ *
+ * The proof has the siblings from the root to the end of the path of the key
+ * and the end of the path: the leaf of the product, an empty subtree or the
+ * leaf of other product.
+ */
+public class StateProof implements Serializable {
+
+    private final String productId;
+    //state of the product (null if the product is not in the tree)
+    private final ProductState state;
+    //leaf of other product at the end of the path (non membership)
+    private final byte[] otherKey;
+    private final byte[] otherStateHash;
+    //siblings from the root to the end of the path
+    private final List<byte[]> siblings;
+
+    StateProof(String productId, ProductState state, byte[] otherKey, byte[] otherStateHash, List<byte[]> siblings) {
+        this.productId = productId;
+        this.state = state;
+        this.otherKey = otherKey;
+        this.otherStateHash = otherStateHash;
+        this.siblings = siblings;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    /**
+     * state proved
+     *
+     * @return state of the product or null if the proof is of non membership
+     */
+    public ProductState getState() {
+        return state;
+    }
+
+    public boolean isMember() {
+        return state != null;
+    }
+
+    public List<byte[]> getSiblings() {
+        return siblings;
+    }
+
+    /**
+     * root of the state tree calculated from the proof
+     *
+     * @return root or null if the proof is malformed
+     */
+    public byte[] getRoot() {
+        byte[] key = StateTree.keyOf(productId);
+        int depth = siblings.size();
+        if (depth > key.length * 8) {
+            return null;
+        }
+        byte[] hash;
+        if (state != null) {
+            if (!state.getProductId().equals(productId)) {
+                return null;
+            }
+            hash = StateTree.hashLeaf(key, MerkleTree.getHashValue(state.toBytes()));
+        } else if (otherKey != null) {
+            //other product with the same path
+            if (Arrays.equals(otherKey, key)) {
+                return null;
+            }
+            for (int i = 0; i < depth; i++) {
+                if (StateTree.bit(otherKey, i) != StateTree.bit(key, i)) {
+                    return null;
+                }
+            }
+            hash = StateTree.hashLeaf(otherKey, otherStateHash);
+        } else {
+            hash = StateTree.EMPTY;
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            hash = StateTree.bit(key, i) == 0
+                    ? StateTree.hashBranch(hash, siblings.get(i))
+                    : StateTree.hashBranch(siblings.get(i), hash);
+        }
+        return hash;
+    }
+
+    /**
+     * verify the proof
+     *
+     * @param root root of the state tree (state root of a block)
+     * @return true if the state (or the absence) of the product is proved
+     */
+    public boolean verify(byte[] root) {
+        return Arrays.equals(getRoot(), root);
+    }
+
+    @Override
+    public String toString() {
+        return (state != null ? "Proof of " + state : "Proof of absence of " + productId)
+                + " [" + siblings.size() + " hashes]";
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180018L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
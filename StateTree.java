@@ -0,0 +1,280 @@
+package foodchain;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sparse merkle tree with the current state of each product.
+ *
+ * The key of a product is the hash of the productId and the bits of the key
+ * (most significant first) are the path from the root. A subtree with one
+ * product is the leaf of the product, so the depth of the tree is O(log n) and
+ * the root depends only on the states in the tree.
+ *
+ * hash(empty) = 0...0 ; hash(leaf) = H(0 | key | H(state)) ; hash(branch) =
+ * H(1 | hash(left) | hash(right))
+ *
+ * The tree is immutable - put returns a new tree that shares the nodes that
+ * didn't change, so the state after each block is kept with a small cost.
+ */
+public final class StateTree implements Serializable {
+
+    //hash of an empty subtree
+    static final byte[] EMPTY = new byte[32];
+    //prefixes of the nodes
+    static final byte LEAF = 0;
+    static final byte BRANCH = 1;
+
+    private final Node root;
+    private final int size;
+
+    public StateTree() {
+        this(null, 0);
+    }
+
+    private StateTree(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * root of the tree
+     *
+     * @return hash of the root
+     */
+    public byte[] getRoot() {
+        return root == null ? EMPTY : root.hash;
+    }
+
+    /**
+     * number of products
+     *
+     * @return number of products
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * state of a product
+     *
+     * @param productId id of the product
+     * @return state or null if the product is not in the tree
+     */
+    public ProductState get(String productId) {
+        byte[] key = keyOf(productId);
+        Node node = root;
+        for (int depth = 0; node instanceof Branch; depth++) {
+            node = ((Branch) node).child(bit(key, depth));
+        }
+        return node != null && ((Leaf) node).productId.equals(productId) ? ((Leaf) node).state : null;
+    }
+
+    /**
+     * tree with the new state of the product
+     *
+     * @param state state of the product
+     * @return new tree
+     */
+    public StateTree put(ProductState state) {
+        Leaf leaf = new Leaf(state);
+        boolean exists = get(state.getProductId()) != null;
+        return new StateTree(put(root, leaf, 0), exists ? size : size + 1);
+    }
+
+    /**
+     * tree with the states after the transactions
+     *
+     * @param elements elements of a block - elements that are not food
+     * transactions are ignored
+     * @return new tree
+     */
+    public StateTree apply(List<?> elements) {
+        StateTree tree = this;
+        for (Object element : elements) {
+            FoodTransaction tx = ProductIndex.toTransaction(element);
+            if (tx != null) {
+                tree = tree.put(ProductState.of(tx));
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * proof of the state of a product (or that the product is not in the
+     * tree)
+     *
+     * @param productId id of the product
+     * @return proof with the siblings from the root to the leaf
+     */
+    public StateProof getProof(String productId) {
+        byte[] key = keyOf(productId);
+        List<byte[]> siblings = new ArrayList<>();
+        Node node = root;
+        for (int depth = 0; node instanceof Branch; depth++) {
+            Branch branch = (Branch) node;
+            int bit = bit(key, depth);
+            siblings.add(hashOf(branch.child(1 - bit)));
+            node = branch.child(bit);
+        }
+        Leaf leaf = (Leaf) node;
+        if (leaf == null) {
+            return new StateProof(productId, null, null, null, siblings);
+        }
+        if (leaf.productId.equals(productId)) {
+            return new StateProof(productId, leaf.state, null, null, siblings);
+        }
+        //other product in the path
+        return new StateProof(productId, null, leaf.key, leaf.stateHash, siblings);
+    }
+
+    /**
+     * all the states (order of the keys)
+     *
+     * @return states of the products
+     */
+    public List<ProductState> values() {
+        List<ProductState> values = new ArrayList<>(size);
+        collect(root, values);
+        return values;
+    }
+
+    private static void collect(Node node, List<ProductState> values) {
+        if (node instanceof Leaf) {
+            values.add(((Leaf) node).state);
+        } else if (node instanceof Branch) {
+            collect(((Branch) node).left, values);
+            collect(((Branch) node).right, values);
+        }
+    }
+
+    private static Node put(Node node, Leaf leaf, int depth) {
+        if (node == null) {
+            return leaf;
+        }
+        if (node instanceof Leaf) {
+            Leaf old = (Leaf) node;
+            if (old.productId.equals(leaf.productId)) {
+                return leaf;
+            }
+            return split(old, leaf, depth);
+        }
+        Branch branch = (Branch) node;
+        return bit(leaf.key, depth) == 0
+                ? new Branch(put(branch.left, leaf, depth + 1), branch.right)
+                : new Branch(branch.left, put(branch.right, leaf, depth + 1));
+    }
+
+    /**
+     * branches until the keys of the leaves have different bits
+     */
+    private static Node split(Leaf a, Leaf b, int depth) {
+        int bitA = bit(a.key, depth);
+        if (bitA != bit(b.key, depth)) {
+            return bitA == 0 ? new Branch(a, b) : new Branch(b, a);
+        }
+        Node child = split(a, b, depth + 1);
+        return bitA == 0 ? new Branch(child, null) : new Branch(null, child);
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    //::::::                                                           :::::::::
+    //::::::                         U T I L S                         :::::::::
+    //::::::                                                           :::::::::
+    ///////////////////////////////////////////////////////////////////////////
+    /**
+     * key of a product in the tree
+     *
+     * @param productId id of the product
+     * @return hash of the id
+     */
+    public static byte[] keyOf(String productId) {
+        return MerkleTree.getHashValue(productId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * bit of the key (most significant first)
+     */
+    static int bit(byte[] key, int index) {
+        return (key[index / 8] >> (7 - index % 8)) & 1;
+    }
+
+    static byte[] hashLeaf(byte[] key, byte[] stateHash) {
+        return MerkleTree.getHashValue(MerkleTree.concatenate(
+                MerkleTree.concatenate(new byte[]{LEAF}, key), stateHash));
+    }
+
+    static byte[] hashBranch(byte[] left, byte[] right) {
+        return MerkleTree.getHashValue(MerkleTree.concatenate(
+                MerkleTree.concatenate(new byte[]{BRANCH}, left), right));
+    }
+
+    private static byte[] hashOf(Node node) {
+        return node == null ? EMPTY : node.hash;
+    }
+
+    /**
+     * node of the tree
+     */
+    private abstract static class Node implements Serializable {
+
+        final byte[] hash;
+
+        Node(byte[] hash) {
+            this.hash = hash;
+        }
+
+        private static final long serialVersionUID = 202610180015L;
+    }
+
+    private static final class Leaf extends Node {
+
+        final String productId;
+        final byte[] key;
+        final byte[] stateHash;
+        final ProductState state;
+
+        Leaf(ProductState state) {
+            this(state, keyOf(state.getProductId()), MerkleTree.getHashValue(state.toBytes()));
+        }
+
+        private Leaf(ProductState state, byte[] key, byte[] stateHash) {
+            super(hashLeaf(key, stateHash));
+            this.productId = state.getProductId();
+            this.key = key;
+            this.stateHash = stateHash;
+            this.state = state;
+        }
+
+        private static final long serialVersionUID = 202610180016L;
+    }
+
+    private static final class Branch extends Node {
+
+        final Node left;
+        final Node right;
+
+        Branch(Node left, Node right) {
+            super(hashBranch(hashOf(left), hashOf(right)));
+            this.left = left;
+            this.right = right;
+        }
+
+        Node child(int bit) {
+            return bit == 0 ? left : right;
+        }
+
+        private static final long serialVersionUID = 202610180017L;
+    }
+
+    @Override
+    public String toString() {
+        return "State tree " + size + " products";
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180014L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
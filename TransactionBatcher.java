@@ -0,0 +1,108 @@
+package foodchain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects the transactions sent to the network and sends them in batches.
+ *
+ * A batch is sent when it has maxBatch transactions or window milliseconds
+ * after the first transaction of the batch.
+ */
+public class TransactionBatcher {
+
+    //default time to collect transactions (ms)
+    public static final long DEFAULT_WINDOW = 50;
+    //default max transactions in one batch
+    public static final int DEFAULT_MAX_BATCH = 500;
+
+    private final long window;
+    private final int maxBatch;
+    private final Consumer<List<String>> sender;
+    private final ScheduledExecutorService timer;
+    private List<String> batch = new ArrayList<>();
+
+    /**
+     * constructor
+     *
+     * @param sender sends a batch to the network
+     */
+    public TransactionBatcher(Consumer<List<String>> sender) {
+        this(DEFAULT_WINDOW, DEFAULT_MAX_BATCH, sender);
+    }
+
+    /**
+     * constructor
+     *
+     * @param window time to collect transactions (ms)
+     * @param maxBatch max transactions in one batch
+     * @param sender sends a batch to the network
+     */
+    public TransactionBatcher(long window, int maxBatch, Consumer<List<String>> sender) {
+        this.window = window;
+        this.maxBatch = maxBatch;
+        this.sender = sender;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "transaction-batcher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * adds a transaction to the next batch
+     *
+     * @param tx transaction
+     */
+    public void add(String tx) {
+        List<String> full = null;
+        synchronized (this) {
+            batch.add(tx);
+            if (batch.size() >= maxBatch) {
+                full = batch;
+                batch = new ArrayList<>();
+            } else if (batch.size() == 1) {
+                //first transaction of the batch
+                timer.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            sender.accept(full);
+        }
+    }
+
+    /**
+     * adds the transactions to the next batches
+     *
+     * @param txs transactions
+     */
+    public void addAll(List<String> txs) {
+        for (String tx : txs) {
+            add(tx);
+        }
+    }
+
+    /**
+     * sends the transactions collected
+     */
+    public void flush() {
+        List<String> ready;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            ready = batch;
+            batch = new ArrayList<>();
+        }
+        sender.accept(ready);
+    }
+
+    public void shutdown() {
+        flush();
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,54 @@
+package foodchain;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Page of the transactions that match a query.
+ *
+ * The cursor of the next page is the position (see ProductIndex.position) of
+ * the transaction after the last transaction read, or END when the blockchain
+ * was read until the end.
+ */
+public class TransactionPage implements Serializable {
+
+    //cursor of the first page
+    public static final long START = 0;
+    //cursor after the last page
+    public static final long END = -1;
+
+    private final List<FoodTransaction> transactions;
+    private final long nextCursor;
+
+    /**
+     * constructor
+     *
+     * @param transactions transactions of the page
+     * @param nextCursor cursor of the next page (END if there are no more)
+     */
+    public TransactionPage(List<FoodTransaction> transactions, long nextCursor) {
+        this.transactions = transactions;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<FoodTransaction> getTransactions() {
+        return transactions;
+    }
+
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != END;
+    }
+
+    @Override
+    public String toString() {
+        return "Page " + transactions.size() + " transactions next=" + nextCursor;
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180007L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}
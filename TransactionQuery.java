@@ -0,0 +1,128 @@
+package foodchain;
+
+import java.io.Serializable;
+
+/**
+ * Filter of the food transactions registered in the blockchain, executed by
+ * the node.
+ *
+ * Fields with null (or the default time range) are not used in the filter.
+ *
+ * usage: new TransactionQuery().setStatus("À Venda").setFromTime(time)
+ */
+public class TransactionQuery implements Serializable {
+
+    private String productId;
+    private String batchId;
+    private String station;
+    private String status;
+    private String sender;
+    private long fromTime = Long.MIN_VALUE;
+    private long toTime = Long.MAX_VALUE;
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public TransactionQuery setProductId(String productId) {
+        this.productId = productId;
+        return this;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public TransactionQuery setBatchId(String batchId) {
+        this.batchId = batchId;
+        return this;
+    }
+
+    public String getStation() {
+        return station;
+    }
+
+    /**
+     * @param station current station of the product
+     * @return this query
+     */
+    public TransactionQuery setStation(String station) {
+        this.station = station;
+        return this;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public TransactionQuery setStatus(String status) {
+        this.status = status;
+        return this;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * @param sender user name of the sender
+     * @return this query
+     */
+    public TransactionQuery setSender(String sender) {
+        this.sender = sender;
+        return this;
+    }
+
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    /**
+     * @param fromTime first timestamp of the transactions (inclusive)
+     * @return this query
+     */
+    public TransactionQuery setFromTime(long fromTime) {
+        this.fromTime = fromTime;
+        return this;
+    }
+
+    public long getToTime() {
+        return toTime;
+    }
+
+    /**
+     * @param toTime last timestamp of the transactions (inclusive)
+     * @return this query
+     */
+    public TransactionQuery setToTime(long toTime) {
+        this.toTime = toTime;
+        return this;
+    }
+
+    /**
+     * verify if the transaction matches the filter
+     *
+     * @param tx transaction
+     * @return true if all the fields of the filter match
+     */
+    public boolean matches(FoodTransaction tx) {
+        FoodProduct product = tx.getProduct();
+        return (productId == null || productId.equals(product.getProductId()))
+                && (batchId == null || batchId.equals(product.getBatchId()))
+                && (station == null || station.equals(product.getCurrentStation()))
+                && (status == null || status.equals(product.getStatus()))
+                && (sender == null || sender.equals(tx.getTxtSender()))
+                && tx.getTimestamp() >= fromTime
+                && tx.getTimestamp() <= toTime;
+    }
+
+    @Override
+    public String toString() {
+        return "Query product=" + productId + " batch=" + batchId + " station=" + station
+                + " status=" + status + " sender=" + sender + " time=[" + fromTime + " , " + toTime + "]";
+    }
+
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    private static final long serialVersionUID = 202610180006L;
+    //:::::::::::::::::::::::::::  Copyright(c) 2026  ::::::::::::::::::::::::::
+}